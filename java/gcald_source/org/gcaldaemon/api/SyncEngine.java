@@ -17,7 +17,10 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.RandomAccessFile;
 import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Properties;
+import java.util.Set;
 
 import org.gcaldaemon.core.CachedCalendar;
 import org.gcaldaemon.core.Configurator;
@@ -388,6 +391,93 @@ public final class SyncEngine {
 		}
 	}
 
+	/**
+	 * Sends the changed and removed events of a local iCalendar (RFC 2445)
+	 * file to a remote Google Calendar. Unlike {@link #synchronize}, only the
+	 * listed events are written, in batch requests of 'gmail.batchSize'
+	 * entries, and the local calendar file is left untouched.
+	 *
+	 * @param localCalendar
+	 *            local calendar file
+	 * @param remoteCalendar
+	 *            Google Calendar's private ICAL URL
+	 *            ("https://www.google.com/calendar/ical/.../basic.ics")
+	 * @param username
+	 *            full name of the user (eg. "username@gmail.com" or
+	 *            "username@mydomain.org")
+	 * @param password
+	 *            Gmail password (in unencrypted, plain text format)
+	 * @param changedUIDs
+	 *            UIDs of the new or modified events in the local calendar
+	 * @param removedUIDs
+	 *            UIDs of the events to remove from Google Calendar
+	 *
+	 * @return UIDs of the events rejected by Google Calendar (these are still
+	 *         unpublished)
+	 *
+	 * @throws Exception
+	 *             any exception (eg. i/o, invalid param, invalid calendar
+	 *             syntax, etc), also when Google Calendar can't be loaded or
+	 *             some of the events couldn't be sent
+	 *
+	 * @see #synchronize
+	 */
+	public final Set<String> publishChanges(final File localCalendar,
+			final URL remoteCalendar, final String username,
+			final String password, final Collection<String> changedUIDs,
+			final Collection<String> removedUIDs) throws Exception {
+
+		// Verify required parameters
+		if (localCalendar == null) {
+			throw new NullPointerException("localCalendar = null");
+		}
+		if (remoteCalendar == null) {
+			throw new NullPointerException("remoteCalendar = null");
+		}
+		if (username == null || username.length() == 0) {
+			throw new NullPointerException("username = null");
+		}
+		if (username.indexOf('@') == -1) {
+			throw new IllegalArgumentException("invalid username");
+		}
+		if (password == null || password.length() == 0) {
+			throw new NullPointerException("password = null");
+		}
+		if (changedUIDs.isEmpty() && removedUIDs.isEmpty()) {
+			return Collections.emptySet();
+		}
+
+		// Load local calendar file
+		byte[] bytes;
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(localCalendar, "r");
+			bytes = new byte[(int) localCalendar.length()];
+			file.readFully(bytes);
+		} finally {
+			if (file != null) {
+				file.close();
+			}
+		}
+
+		// Create (or reinitialize) the cached instance
+		if (m_configChanged) {
+			m_configChanged = false;
+			m_configurator = new Configurator(null, m_properties, false);
+		}
+
+		// Create request container
+		final Request request = new Request();
+		request.body = bytes;
+		request.url = remoteCalendar.getPath();
+		request.username = username;
+		request.password = password;
+		request.filePath = localCalendar.getAbsolutePath();
+
+		// Send changes
+		return m_configurator.applyChanges(request, changedUIDs, removedUIDs);
+	}
+
 	// --- PRIVATE PROPERTY GETTERS/SETTERS ---
 
 	/**
@@ -0,0 +1,142 @@
+//
+// GCALDaemon is an OS-independent Java program that offers two-way
+// synchronization between Google Calendar and various iCalalendar (RFC 2445)
+// compatible calendar applications (Sunbird, Rainlendar, iCal, Lightning, etc).
+//
+// Apache License
+// Version 2.0, January 2004
+// http://www.apache.org/licenses/
+//
+// Project home:
+// http://gcaldaemon.sourceforge.net
+//
+package org.gcaldaemon.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe, size-bounded cache. When the cache is full, the least recently
+ * used entry is evicted (instead of clearing the whole cache). Entries
+ * optionally expire 'timeToLive' millis after they were stored. Hits, misses,
+ * evictions and expirations are counted (see toString).
+ */
+final class BoundedCache<K, V> {
+
+	// --- PROPERTIES ---
+
+	private final String name;
+	private final int maxSize;
+	private final long timeToLive;
+
+	// --- COUNTERS ---
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long expirations;
+
+	// --- ENTRIES (ACCESS ORDERED) ---
+
+	private final LinkedHashMap<K, CacheEntry<V>> entries;
+
+	// --- CONSTRUCTORS ---
+
+	BoundedCache(final String name, final int maxSize) {
+		this(name, maxSize, 0);
+	}
+
+	/**
+	 * @param timeToLive
+	 *            expiration time in millis (0 = never expires)
+	 */
+	BoundedCache(final String name, final int maxSize, final long timeToLive) {
+		this.name = name;
+		this.maxSize = maxSize;
+		this.timeToLive = timeToLive;
+		entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected final boolean removeEldestEntry(
+					final Map.Entry<K, CacheEntry<V>> eldest) {
+				if (size() > BoundedCache.this.maxSize) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	// --- CACHE OPERATIONS ---
+
+	final synchronized V get(final K key) {
+		final CacheEntry<V> entry = getEntry(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.value;
+	}
+
+	final synchronized boolean containsKey(final K key) {
+		return getEntry(key) != null;
+	}
+
+	final synchronized void put(final K key, final V value) {
+		entries.put(key, new CacheEntry<V>(value, System.currentTimeMillis()));
+	}
+
+	final synchronized V remove(final K key) {
+		final CacheEntry<V> entry = entries.remove(key);
+		return entry == null ? null : entry.value;
+	}
+
+	final synchronized void clear() {
+		entries.clear();
+	}
+
+	final synchronized int size() {
+		return entries.size();
+	}
+
+	private final CacheEntry<V> getEntry(final K key) {
+		final CacheEntry<V> entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (timeToLive != 0
+				&& System.currentTimeMillis() - entry.created >= timeToLive) {
+
+			// Entry expired
+			entries.remove(key);
+			expirations++;
+			return null;
+		}
+		return entry;
+	}
+
+	public final synchronized String toString() {
+		return name + " [size: " + entries.size() + '/' + maxSize + ", hits: "
+				+ hits + ", misses: " + misses + ", evictions: " + evictions
+				+ ", expirations: " + expirations + ']';
+	}
+
+	// --- CACHE ENTRY ---
+
+	private static final class CacheEntry<V> {
+
+		private final V value;
+		private final long created;
+
+		private CacheEntry(final V value, final long created) {
+			this.value = value;
+			this.created = created;
+		}
+
+	}
+
+}
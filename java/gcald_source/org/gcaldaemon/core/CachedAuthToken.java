@@ -0,0 +1,30 @@
+//
+// GCALDaemon is an OS-independent Java program that offers two-way
+// synchronization between Google Calendar and various iCalalendar (RFC 2445)
+// compatible calendar applications (Sunbird, Rainlendar, iCal, Lightning, etc).
+//
+// Apache License
+// Version 2.0, January 2004
+// http://www.apache.org/licenses/
+// 
+// Project home:
+// http://gcaldaemon.sourceforge.net
+//
+package org.gcaldaemon.core;
+
+/**
+ * Cached ClientLogin token (used in GCalUtilities.loadCalendar).
+ */
+final class CachedAuthToken {
+
+	/**
+	 * Timestamp of the login
+	 */
+	long created;
+
+	/**
+	 * Google auth token
+	 */
+	String token;
+
+}
@@ -17,14 +17,17 @@ import java.io.FileOutputStream;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Method;
 import java.text.SimpleDateFormat;
+import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TimeZone;
 
 import net.fortuna.ical4j.model.Calendar;
 import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.component.VEvent;
 import net.fortuna.ical4j.model.component.VToDo;
 import net.fortuna.ical4j.util.CompatibilityHints;
 
@@ -63,12 +66,14 @@ public final class Configurator {
 	public static final String CACHE_TIMEOUT = "cache.timeout";
 	public static final String WORK_DIR = "work.dir";
 	public static final String REMOTE_ALARM_TYPES = "remote.alarm.types";
+	public static final String BATCH_SIZE = "gmail.batchSize";
 
 	// --- UTILS ---
 
 	private Properties config = new Properties();
 
-	private final HashMap<String, String> toDoCache = new HashMap<String, String>();
+	private final BoundedCache<String, String> toDoCache = new BoundedCache<String, String>(
+			"To-do cache", MAX_CACHE_SIZE);
 	private final HashSet<String> backupFiles = new HashSet<String>();
 	private final File workDirectory;
 	private final long calendarCacheTimeout;
@@ -177,6 +182,12 @@ public final class Configurator {
 		final int proxyPort = Integer.valueOf(getConfigProperty(PROXY_PORT, "0"));
 		GCalUtilities.initHttpClient(proxyHost, proxyPort);
 
+		// Event feed snapshots (for incremental feed requests)
+		EventFeedStore.setWorkDirectory(workDirectory);
+
+		// Max number of events per Google batch request
+		GCalUtilities.setBatchSize((int) getConfigProperty(BATCH_SIZE, 100L));
+
 		// Get iCal cache timeout
 		long timeout = getConfigProperty(CACHE_TIMEOUT, 180000L);
 		if (timeout < 60000L) {
@@ -184,6 +195,8 @@ public final class Configurator {
 			timeout = 60000L;
 		}
 		calendarCacheTimeout = timeout;
+		calendarCache = new BoundedCache<String, CachedCalendar>(
+				"Calendar cache", MAX_CACHE_SIZE, calendarCacheTimeout);
 
 		// Get backup file timeout
 		timeout = getConfigProperty(ICAL_BACKUP_TIMEOUT, 604800000L);
@@ -269,7 +282,8 @@ public final class Configurator {
 
 	// --- GLOBAL CALENDAR CACHE ---
 
-	private final HashMap<String,CachedCalendar> calendarCache = new HashMap<String,CachedCalendar>();
+	// Calendars expire 'cache.timeout' millis after loading
+	private final BoundedCache<String,CachedCalendar> calendarCache;
 
 	public final synchronized CachedCalendar getCalendar(final Request request)
 			throws Exception {
@@ -277,23 +291,15 @@ public final class Configurator {
 		final boolean isSyncJob = request.url.endsWith(".ics");
 		final long now = System.currentTimeMillis();
 		if (calendar != null) {
-			final long timeOut = calendarCacheTimeout;
-			if (now - calendar.lastModified >= timeOut) {
-				calendarCache.remove(request.url);
-			} else {
 
-				// Return calendar from cache
-				return calendar;
-			}
+			// Return calendar from cache
+			return calendar;
 		}
 		calendar = new CachedCalendar();
 
 
 			// Load calendar from Google
 			calendar.body = GCalUtilities.loadCalendar(request);
-		if (calendarCache.size() >= MAX_CACHE_SIZE) {
-			calendarCache.clear();
-		}
 
 		// Load todo block
 		calendar.toDoBlock = loadToDoBlock(request);
@@ -360,9 +366,6 @@ public final class Configurator {
 		calendar.method = request.method;
 		calendar.url = request.url;
 		calendar.toDoBlock = toDoBlock;
-		if (calendarCache.size() >= MAX_CACHE_SIZE) {
-			calendarCache.clear();
-		}
 		calendarCache.put(request.url, calendar);
 
 		// Do the daily backup
@@ -386,6 +389,67 @@ public final class Configurator {
 		}
 	}
 
+	// --- INCREMENTAL PUBLISHER ---
+
+	public final synchronized Set<String> applyChanges(final Request request,
+			final Collection<String> changedUIDs,
+			final Collection<String> removedUIDs) throws Exception {
+
+		// Find error marker
+		final String content = StringUtils.decodeToString(request.body,
+				StringUtils.UTF_8);
+		if (content.indexOf(GCalUtilities.ERROR_MARKER) != -1) {
+			throw new Exception("Local calendar contains an error marker: "
+					+ request.filePath);
+		}
+
+		// Create calendar container
+		final CachedCalendar calendar = new CachedCalendar();
+		calendar.body = request.body;
+		calendar.lastModified = System.currentTimeMillis();
+
+		// Load calendar from Google
+		calendar.previousBody = GCalUtilities.loadCalendar(request);
+
+		// Verify loaded ics file
+		final char[] chars = new char[Math.min(calendar.previousBody.length, 100)];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = (char) calendar.previousBody[i];
+		}
+		if ((new String(chars)).indexOf(GCalUtilities.ERROR_MARKER) != -1) {
+			throw new Exception("Unable to load calendar from Google: "
+					+ request.url);
+		}
+
+		// Store other properties
+		calendar.username = request.username;
+		calendar.password = request.password;
+		calendar.filePath = request.filePath;
+		calendar.method = request.method;
+		calendar.url = request.url;
+
+		// Select changed events
+		final Calendar local = ICalUtilities.parseCalendar(request.body);
+		final VEvent[] events = ICalUtilities.getEvents(local);
+		final LinkedList<VEvent> changed = new LinkedList<VEvent>();
+		for (final VEvent event : events) {
+			final String uid = ICalUtilities.getUid(event);
+			if (uid != null && changedUIDs.contains(uid)) {
+				changed.addLast(event);
+			}
+		}
+
+		// Send changes in batches
+		final Set<String> rejected = GCalUtilities.updateEvents(calendar,
+				ICalUtilities.getTimeZones(local),
+				changed.toArray(new VEvent[changed.size()]),
+				removedUIDs.toArray(new String[removedUIDs.size()]));
+
+		// Reload the modified Google calendar on next request
+		calendarCache.remove(request.url);
+		return rejected;
+	}
+
 	// --- BACKUP HANDLER ---
 
 	private final void manageBackups(final CachedCalendar calendar, final long now)
@@ -544,9 +608,6 @@ public final class Configurator {
 				raf.close();
 				toDoBlock = StringUtils
 						.decodeToString(bytes, StringUtils.UTF_8);
-				if (toDoCache.size() > MAX_CACHE_SIZE) {
-					toDoCache.clear();
-				}
 				toDoCache.put(request.url, toDoBlock);
 				return toDoBlock;
 			} catch (final Exception ioError) {
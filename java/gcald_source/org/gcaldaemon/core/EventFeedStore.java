@@ -0,0 +1,152 @@
+//
+// GCALDaemon is an OS-independent Java program that offers two-way
+// synchronization between Google Calendar and various iCalalendar (RFC 2445)
+// compatible calendar applications (Sunbird, Rainlendar, iCal, Lightning, etc).
+//
+// Apache License
+// Version 2.0, January 2004
+// http://www.apache.org/licenses/
+//
+// Project home:
+// http://gcaldaemon.sourceforge.net
+//
+package org.gcaldaemon.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.gdata.data.DateTime;
+
+/**
+ * Stores the remote entries of the last loaded event feed of each Google
+ * Calendar in the working directory (gcal-feed-[SHA-1 of the URL].dat). Only
+ * the parts kept by {@link RemoteEntry} are stored, with the watermark of the
+ * next incremental (updated-min) request. Snapshots saved more than one week
+ * ago (file modification time) are considered stale, and the full feed is
+ * loaded again.
+ */
+final class EventFeedStore {
+
+	// --- CONSTANTS ---
+
+	private static final long STALE_TIMEOUT = 1000L * 60 * 60 * 24 * 7;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	// --- LOGGER ---
+
+	private static final Log log = LogFactory.getLog(EventFeedStore.class);
+
+	// --- WORKING DIRECTORY ---
+
+	private static File workDirectory;
+
+	static final void setWorkDirectory(final File directory) {
+		workDirectory = directory;
+	}
+
+	private EventFeedStore() {
+	}
+
+	// --- SNAPSHOT LOADER ---
+
+	/**
+	 * Puts the stored entries into the map (keyed by entry ID) and returns the
+	 * watermark, or null if there's no usable snapshot.
+	 */
+	static final DateTime load(final String url,
+			final LinkedHashMap<String, RemoteEntry> entries) {
+		final File file = getFile(url);
+		if (file == null || !file.isFile()) {
+			return null;
+		}
+		if (System.currentTimeMillis() - file.lastModified() > STALE_TIMEOUT) {
+			log.debug("Event feed snapshot is stale.");
+			return null;
+		}
+		ObjectInputStream in = null;
+		try {
+			in = new ObjectInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			final DateTime updated = DateTime.parseDateTime((String) in
+					.readObject());
+			final Iterator<?> stored = ((ArrayList<?>) in.readObject()).iterator();
+			RemoteEntry entry;
+			while (stored.hasNext()) {
+				entry = (RemoteEntry) stored.next();
+				entries.put(entry.id, entry);
+			}
+			return updated;
+		} catch (final Exception ioException) {
+			log.debug("Unable to load event feed snapshot!", ioException);
+			entries.clear();
+			return null;
+		} finally {
+			Closer.close(in);
+		}
+	}
+
+	// --- SNAPSHOT WRITER ---
+
+	static final void save(final String url, final DateTime updated,
+			final Collection<RemoteEntry> entries) {
+		final File file = getFile(url);
+		if (file == null) {
+			return;
+		}
+		final File temp = new File(file.getPath() + ".tmp");
+		ObjectOutputStream out = null;
+		try {
+			out = new ObjectOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temp)));
+			out.writeObject(updated.toString());
+			out.writeObject(new ArrayList<RemoteEntry>(entries));
+			out.close();
+			out = null;
+			file.delete();
+			if (!temp.renameTo(file)) {
+				log.debug("Unable to save event feed snapshot (" + file + ")!");
+			}
+		} catch (final Exception ioException) {
+			log.debug("Unable to save event feed snapshot!", ioException);
+			temp.delete();
+		} finally {
+			Closer.close(out);
+		}
+	}
+
+	private static final File getFile(final String url) {
+		if (workDirectory == null || url == null) {
+			return null;
+		}
+		try {
+			final byte[] hash = MessageDigest.getInstance("SHA-1").digest(
+					StringUtils.encodeString(url, StringUtils.UTF_8));
+			final StringBuffer name = new StringBuffer(50);
+			name.append("gcal-feed-");
+			for (int i = 0; i < hash.length; i++) {
+				name.append(HEX[(hash[i] >> 4) & 0xf]);
+				name.append(HEX[hash[i] & 0xf]);
+			}
+			name.append(".dat");
+			return new File(workDirectory, name.toString());
+		} catch (final Exception unsupportedAlgorithm) {
+			log.debug("Unable to hash calendar URL!", unsupportedAlgorithm);
+			return null;
+		}
+	}
+
+}
@@ -18,18 +18,27 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.math.BigInteger;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import net.fortuna.ical4j.data.CalendarOutputter;
 import net.fortuna.ical4j.model.Calendar;
@@ -71,16 +80,17 @@ import org.gcaldaemon.logger.QuickWriter;
 import com.google.gdata.client.GoogleService.InvalidCredentialsException;
 import com.google.gdata.client.calendar.CalendarQuery;
 import com.google.gdata.client.calendar.CalendarService;
-import com.google.gdata.data.Content;
 import com.google.gdata.data.DateTime;
 import com.google.gdata.data.Link;
 import com.google.gdata.data.PlainTextConstruct;
 import com.google.gdata.data.TextConstruct;
-import com.google.gdata.data.TextContent;
 import com.google.gdata.data.calendar.CalendarEntry;
 import com.google.gdata.data.calendar.CalendarEventEntry;
 import com.google.gdata.data.calendar.CalendarEventFeed;
 import com.google.gdata.data.calendar.CalendarFeed;
+import com.google.gdata.data.batch.BatchOperationType;
+import com.google.gdata.data.batch.BatchStatus;
+import com.google.gdata.data.batch.BatchUtils;
 import com.google.gdata.data.calendar.EventWho;
 import com.google.gdata.data.extensions.BaseEventEntry.EventStatus;
 import com.google.gdata.data.extensions.BaseEventEntry.Transparency;
@@ -92,14 +102,13 @@ import com.google.gdata.data.extensions.Reminder;
 import com.google.gdata.data.extensions.When;
 import com.google.gdata.data.extensions.Where;
 import com.google.gdata.data.extensions.Who.AttendeeStatus;
-import com.google.gdata.util.ServiceException;
+import com.google.gdata.util.AuthenticationException;
 
 /**
  * Google Calendar utilities.
  *
  * <li>loadCalendar
- * <li>updateEvents
- * <li>removeEvents
+ * <li>updateEvents (batched inserts, updates and removals)
  *
  * Created: Jan 03, 2007 12:50:56 PM
  *
@@ -114,8 +123,27 @@ public final class GCalUtilities {
 	private static final long GOOGLE_CONNECTION_TIMEOUT = 1000L * 60 * 5;
 	private static final long GOOGLE_RETRY_MILLIS = 1000L;
 
+	// Retry policy of the Google calls (see RetryPolicy)
+	private static final int GOOGLE_MAX_TRIES = 6;
+	private static final long GOOGLE_MAX_RETRY_MILLIS = 1000L * 30;
+	private static final int GOOGLE_FAILURE_THRESHOLD = 5;
+	private static final long GOOGLE_CIRCUIT_OPEN_MILLIS = 1000L * 60;
+
+	// Calendar calls have a circuit per calendar (see getEndpoint), login and
+	// metafeed calls have one circuit each
+	private static final String ICAL_ENDPOINT = "ical";
+	private static final String LOGIN_ENDPOINT = "login";
+	private static final String FEED_ENDPOINT = "feed";
+	private static final String ENTRY_ENDPOINT = "entry";
+	private static final String BATCH_ENDPOINT = "batch";
+	private static final String METAFEED_ENDPOINT = "metafeed";
+
+	// Refresh ClientLogin tokens well before Google expires them (24 hours)
+	private static final long AUTH_TOKEN_TIMEOUT = 1000L * 60 * 60 * 12;
+
 	private static final int MAX_POOLED_CONNECTIONS = 100;
-	private static final int MAX_FEED_ENTRIES = 10000;
+	private static final int MAX_EDIT_URL_MAPS = 100;
+	private static final int FEED_PAGE_SIZE = 250;
 
 	private static final String GOOGLE_HTTPS_URL = "https://www.google.com";
 	private static final String GOOGLE_HTTP_URL = "http://www.google.com";
@@ -129,10 +157,10 @@ public final class GCalUtilities {
 	private static final String CALENDAR_ICAL_PART = "/calendar/ical/";
 	private static final String PRIVATE_BASIC_PART = "/private/basic.ics";
 
-	private static final String UID_EXTENSION_NAME = "gcaldaemon-uid";
-	private static final String CATEGORIES_EXTENSION_NAME = "gcaldaemon-categories";
-	private static final String PRIORITY_EXTENSION_NAME = "gcaldaemon-priority";
-	private static final String URL_EXTENSION_NAME = "gcaldaemon-url";
+	static final String UID_EXTENSION_NAME = "gcaldaemon-uid";
+	static final String CATEGORIES_EXTENSION_NAME = "gcaldaemon-categories";
+	static final String PRIORITY_EXTENSION_NAME = "gcaldaemon-priority";
+	static final String URL_EXTENSION_NAME = "gcaldaemon-url";
 
 	private static final char[] CR_LF = "\r\n".toCharArray();
 	private static final char[] ALARM_BEGIN = "\r\nBEGIN:VALARM\r\nTRIGGER;VALUE=DURATION:-P"
@@ -152,6 +180,12 @@ public final class GCalUtilities {
 
 	private static final Log log = LogFactory.getLog(GCalUtilities.class);
 
+	// --- RETRY POLICY ---
+
+	private static final RetryPolicy retryPolicy = new RetryPolicy(
+			GOOGLE_MAX_TRIES, GOOGLE_RETRY_MILLIS, GOOGLE_MAX_RETRY_MILLIS,
+			GOOGLE_FAILURE_THRESHOLD, GOOGLE_CIRCUIT_OPEN_MILLIS);
+
 	// --- GLOBAL PROPERTIES ---
 
 	private static boolean enableEmail;
@@ -189,16 +223,15 @@ public final class GCalUtilities {
 		String token = null;
 		if (request.url.indexOf("/private-") == -1 && request.username != null
 				&& request.password != null) {
-			final CalendarService service = new CalendarService(Configurator.VERSION
-					.replace(' ', '-'));
-			token = service.getAuthToken(request.username, request.password,
-					null, null, CalendarService.CALENDAR_SERVICE,
-					Configurator.VERSION);
+			token = getAuthToken(request, false);
 		}
 
 		// Load calendar
+		final String endpoint = getEndpoint(ICAL_ENDPOINT, request.url);
+		boolean tokenRefreshed = false;
 		for (int tries = 0;; tries++) {
 			try {
+				retryPolicy.before(endpoint);
 
 				// Create ical URL
 				if (tries < 2) {
@@ -226,6 +259,14 @@ public final class GCalUtilities {
 				if (status == -1) {
 					throw new Exception("Invalid HTTP response status (-1)!");
 				}
+				if (status == 401 && token != null && !tokenRefreshed) {
+
+					// Token expired or revoked
+					log.debug("Auth token rejected, logging in again...");
+					token = getAuthToken(request, true);
+					tokenRefreshed = true;
+					continue;
+				}
 				byte[] bytes = get.getResponseBody();
 
 				// Validate content
@@ -245,22 +286,28 @@ public final class GCalUtilities {
 
 				// Cleanup cache
 				editURLMaps.remove(request.url);
+				entryIDMaps.remove(request.url);
 				uidMaps.remove(request.url);
+				retryPolicy.succeeded(endpoint);
 				log.debug("Calendar loaded successfully (" + bytes.length
 						+ " bytes).");
 
 				// Return ICS calendar file
 				return bytes;
 			} catch (final UnknownHostException networkDown) {
+				retryPolicy.failed(endpoint, networkDown);
 				log.debug("Network down!");
 				return exceptionToCalendar(networkDown);
 			} catch (final Exception loadError) {
-				if (tries == 5) {
-					log.error("Unable to load calendar!", loadError);
+				if (!retryPolicy.retry(endpoint, tries, loadError)) {
+					if (loadError instanceof RetryPolicy.CircuitOpenException) {
+						log.warn(loadError.getMessage());
+					} else {
+						log.error("Unable to load calendar!", loadError);
+					}
 					return exceptionToCalendar(loadError);
 				}
 				log.debug("Connection refused, reconnecting...");
-				Thread.sleep(GOOGLE_RETRY_MILLIS);
 			} finally {
 				if (get != null) {
 					get.releaseConnection();
@@ -269,6 +316,56 @@ public final class GCalUtilities {
 		}
 	}
 
+	// --- AUTH TOKEN CACHE ---
+
+	// Tokens by username and password hash (a changed password logs in again)
+	private static final HashMap authTokens = new HashMap();
+
+	private static final String getAuthToken(final Request request,
+			final boolean refresh) throws Exception {
+		final long now = System.currentTimeMillis();
+		final String key = getTokenKey(request);
+		CachedAuthToken cached;
+		synchronized (authTokens) {
+			cached = (CachedAuthToken) authTokens.get(key);
+		}
+		if (cached != null && !refresh
+				&& now - cached.created < AUTH_TOKEN_TIMEOUT) {
+			return cached.token;
+		}
+
+		// Request new token (ClientLogin)
+		log.debug("Requesting auth token...");
+		final CalendarService service = new CalendarService(Configurator.VERSION
+				.replace(' ', '-'));
+		cached = new CachedAuthToken();
+		retryPolicy.before(LOGIN_ENDPOINT);
+		try {
+			cached.token = service.getAuthToken(request.username,
+					request.password, null, null,
+					CalendarService.CALENDAR_SERVICE, Configurator.VERSION);
+			retryPolicy.succeeded(LOGIN_ENDPOINT);
+		} catch (final InvalidCredentialsException wrongPassword) {
+			throw wrongPassword;
+		} catch (final Exception loginError) {
+			retryPolicy.failed(LOGIN_ENDPOINT, loginError);
+			throw loginError;
+		}
+		cached.created = now;
+		synchronized (authTokens) {
+			authTokens.put(key, cached);
+		}
+		return cached.token;
+	}
+
+	private static final String getTokenKey(final Request request)
+			throws Exception {
+		final byte[] hash = MessageDigest.getInstance("SHA-1").digest(
+				StringUtils.encodeString(String.valueOf(request.password),
+						StringUtils.UTF_8));
+		return request.username + '\t' + new BigInteger(1, hash).toString(16);
+	}
+
 	private static final byte[] exceptionToCalendar(final Exception loadError)
 			throws Exception {
 
@@ -572,32 +669,8 @@ public final class GCalUtilities {
 		}
 	}
 
-	private static final void insertEvent(CachedCalendar calendar,
-			final VTimeZone[] timeZones, final VEvent event, boolean foundRRule,
-			final CalendarService service, final URL feedURL) throws Exception {
-
-		// Clear cache
-		if (foundRRule && event.getRecurrenceId() != null) {
-			foundRRule = false;
-			editURLMaps.remove(calendar.url);
-			uidMaps.remove(calendar.url);
-			final CachedCalendar swap = new CachedCalendar();
-			swap.lastModified = calendar.lastModified;
-			swap.url = calendar.url;
-			swap.username = calendar.username;
-			swap.password = calendar.password;
-			swap.filePath = calendar.filePath;
-			swap.toDoBlock = calendar.toDoBlock;
-			swap.body = calendar.body;
-			swap.previousBody = calendar.body;
-			calendar = swap;
-		}
-
-		// Convert event to Google entry
-		final CalendarEventEntry newEntry = convertVEvent(calendar, timeZones, event);
-
-		// Absolute time = clear reminders mark
-		final List reminders = newEntry.getReminder();
+	private static final void clearRemindersMark(final CalendarEventEntry entry) {
+		final List reminders = entry.getReminder();
 		if (reminders != null && !reminders.isEmpty()) {
 			final Reminder reminder = (Reminder) reminders.get(0);
 			final DateTime absolute = reminder.getAbsoluteTime();
@@ -605,77 +678,359 @@ public final class GCalUtilities {
 				reminders.clear();
 			}
 		}
+	}
 
-		// Insert new event
-		if (log.isDebugEnabled()) {
-			log.debug("Inserting event (" + ICalUtilities.getEventTitle(event)
-					+ ") into Google Calendar...");
+	private static final URL getFeedURL(final Request request) throws Exception {
+		String target = request.url;
+		int i = target.indexOf("/ical/");
+		if (i == -1) {
+			throw new Exception("Malformed iCal URL, '/ical/' part not found: "
+					+ request.url);
 		}
-		try {
-			service.insert(feedURL, newEntry);
-		} catch (final Exception exception) {
+		target = target.substring(i + 6);
+		i = target.indexOf('/');
+		if (i == -1) {
+			throw new Exception(
+					"Malformed iCal URL, 4th '/' character not found: "
+							+ request.url);
+		}
+		target = target.substring(0, i);
+		return new URL(CALENDAR_FEED_PREFIX + target + CALENDAR_FEED_POSTFIX);
+	}
 
-			// Get remote message
-			final String msg = getMessageBody(exception);
+	/**
+	 * Returns the retry policy key of a call to the given calendar (call type
+	 * and calendar ID, so the private part of the iCal URL isn't logged).
+	 */
+	private static final String getEndpoint(final String type, final String url) {
+		int i = url.indexOf("/ical/");
+		if (i == -1) {
+			return type;
+		}
+		final String target = url.substring(i + 6);
+		i = target.indexOf('/');
+		return type + ' ' + (i == -1 ? target : target.substring(0, i));
+	}
 
-			// Skip insert
-			if (msg.indexOf("no instances") != -1
-					|| msg.indexOf("read-only") != -1) {
-				log.debug("Unable to insert event ("
-						+ ICalUtilities.getEventTitle(event) + ")!\r\n" + msg);
-				return;
+	// --- BATCH WRITER ---
+
+	private static int batchSize = 100;
+
+	static final void setBatchSize(final int size) {
+		batchSize = Math.max(1, size);
+	}
+
+	/**
+	 * Sends the changed and removed events to Google Calendar in batch feed
+	 * requests of at most 'batchSize' entries. Changed events are updated when
+	 * they already exist in Google Calendar, otherwise inserted. The result of
+	 * each entry is mapped back to its event, and only the failed entries are
+	 * resent. Throws an exception if some events couldn't be sent, and returns
+	 * the UIDs of the events Google rejected (4xx).
+	 */
+	static final Set<String> updateEvents(final CachedCalendar calendar,
+			final VTimeZone[] timeZones, final VEvent[] changedEvents,
+			final String[] removedUIDs) throws Exception {
+
+		// Get service from pool
+		final CalendarService service = getService(calendar);
+		final URL feedURL = getFeedURL(calendar);
+
+		try {
+
+			// Convert events (recurrence exceptions are sent after their master)
+			final LinkedList operations = new LinkedList();
+			final LinkedList exceptions = new LinkedList();
+			final IdentityHashMap<CalendarEventEntry, String> uids = new IdentityHashMap<CalendarEventEntry, String>();
+			final Set<String> rejected = new HashSet<String>();
+			CalendarEventEntry entry;
+			for (final VEvent event : changedEvents) {
+				if (event.getRecurrenceId() != null) {
+					exceptions.addLast(event);
+					continue;
+				}
+				entry = toBatchEntry(service, calendar, feedURL, timeZones, event);
+				uids.put(entry, ICalUtilities.getUid(event));
+				operations.addLast(entry);
 			}
 
-			// Remove reminders
-			if (msg.indexOf("many reminder") != -1) {
-				final List reminder = newEntry.getReminder();
-				log.warn("Too many reminders!");
-				if (reminder != null) {
-					reminder.clear();
+			// Convert removed UIDs
+			for (final String uid : removedUIDs) {
+				entry = new CalendarEventEntry();
+				if (bindRemoteEntry(service, calendar, feedURL, uid, entry)) {
+					BatchUtils.setBatchOperationType(entry, BatchOperationType.DELETE);
+					uids.put(entry, uid);
+					operations.addLast(entry);
+				}
+			}
+			sendBatches(service, calendar, feedURL, operations, uids, rejected);
+
+			// Send recurrence exceptions
+			if (!exceptions.isEmpty()) {
+				editURLMaps.remove(calendar.url);
+				entryIDMaps.remove(calendar.url);
+				uidMaps.remove(calendar.url);
+				final CachedCalendar swap = new CachedCalendar();
+				swap.lastModified = calendar.lastModified;
+				swap.url = calendar.url;
+				swap.username = calendar.username;
+				swap.password = calendar.password;
+				swap.filePath = calendar.filePath;
+				swap.toDoBlock = calendar.toDoBlock;
+				swap.body = calendar.body;
+				swap.previousBody = calendar.body;
+				final Iterator events = exceptions.iterator();
+				VEvent event;
+				while (events.hasNext()) {
+					event = (VEvent) events.next();
+					entry = toBatchEntry(service, swap, feedURL, timeZones, event);
+					uids.put(entry, ICalUtilities.getUid(event));
+					operations.addLast(entry);
 				}
+				sendBatches(service, swap, feedURL, operations, uids, rejected);
 			}
+			return rejected;
+		} finally {
 
-			// Resend request
-			Thread.sleep(GOOGLE_RETRY_MILLIS);
-			try {
-				service.insert(feedURL, newEntry);
-			} catch (final Exception error) {
-				log.warn("Unable to insert event ("
-						+ ICalUtilities.getEventTitle(event) + ")!\r\n" + msg);
+			// Cleanup cache
+			editURLMaps.remove(calendar.url);
+			entryIDMaps.remove(calendar.url);
+			uidMaps.remove(calendar.url);
+			if (log.isDebugEnabled()) {
+				log.debug(editURLMaps + "\r\n" + uidMaps + "\r\nGoogle calls: "
+						+ retryPolicy);
 			}
 		}
 	}
 
-	private static final String getMessageBody(final Exception exception) {
-		if (exception == null) {
-			return "";
+	private static final CalendarEventEntry toBatchEntry(
+			final CalendarService service, final CachedCalendar calendar,
+			final URL feedURL, final VTimeZone[] timeZones, final VEvent event)
+			throws Exception {
+
+		// Convert event to Google entry
+		final CalendarEventEntry entry = convertVEvent(calendar, timeZones, event);
+
+		// Absolute time = clear reminders mark
+		clearRemindersMark(entry);
+
+		// Existing event -> update, otherwise insert
+		final String uid = ICalUtilities.getUid(event);
+		if (uid != null && bindRemoteEntry(service, calendar, feedURL, uid, entry)) {
+			BatchUtils.setBatchOperationType(entry, BatchOperationType.UPDATE);
+		} else {
+			BatchUtils.setBatchOperationType(entry, BatchOperationType.INSERT);
+		}
+		return entry;
+	}
+
+	private static final boolean bindRemoteEntry(final CalendarService service,
+			final CachedCalendar calendar, final URL feedURL, String uid,
+			final CalendarEventEntry entry) throws Exception {
+
+		// Create edit URL map
+		if (!hasEditURLMap(calendar)) {
+			createEditURLMap(service, calendar, feedURL);
+		}
+
+		// Get remote ID and edit URL
+		final HashMap<String, URL> editURLs = editURLMaps.get(calendar.url);
+		final HashMap<String, String> entryIDs = entryIDMaps.get(calendar.url);
+		if (editURLs == null || entryIDs == null) {
+			return false;
 		}
-		String body = null;
-		if (exception instanceof ServiceException) {
-			body = ((ServiceException) exception).getResponseBody();
+		if (!editURLs.containsKey(uid)) {
+			uid = getRemoteUID(calendar, uid);
+			if (uid == null) {
+				return false;
+			}
 		}
-		if (body == null || body.length() == 0) {
-			body = exception.toString();
+		final URL editURL = editURLs.get(uid);
+		final String id = entryIDs.get(uid);
+		if (editURL == null || id == null) {
+			return false;
 		}
-		return body;
+		entry.setId(id);
+		entry.getLinks().add(new Link(Link.Rel.ENTRY_EDIT, Link.Type.ATOM,
+				editURL.toString()));
+		return true;
 	}
 
-	private static final URL getFeedURL(final Request request) throws Exception {
-		String target = request.url;
-		int i = target.indexOf("/ical/");
-		if (i == -1) {
-			throw new Exception("Malformed iCal URL, '/ical/' part not found: "
-					+ request.url);
+	private static final void sendBatches(CalendarService service,
+			final CachedCalendar calendar, final URL feedURL,
+			final LinkedList operations,
+			final IdentityHashMap<CalendarEventEntry, String> uids,
+			final Set<String> rejected) throws Exception {
+		final URL batchURL = new URL(feedURL.toString() + "/batch");
+		final String endpoint = getEndpoint(BATCH_ENDPOINT, calendar.url);
+		final HashMap sent = new HashMap();
+		final LinkedList failed = new LinkedList();
+		final LinkedList<CalendarEventEntry> lostInserts = new LinkedList<CalendarEventEntry>();
+		for (int tries = 0; !operations.isEmpty(); tries++) {
+			if (tries != 0) {
+				if (tries == GOOGLE_MAX_TRIES
+						|| retryPolicy.isOpen(endpoint)) {
+					final int unsent = operations.size();
+					operations.clear();
+					throw new Exception("Unable to send " + unsent
+							+ " event(s) to Google Calendar!");
+				}
+				log.debug("Resending " + operations.size()
+						+ " failed event(s)...");
+				retryPolicy.pause(tries - 1);
+
+				// Inserts without result may exist already
+				if (!lostInserts.isEmpty()) {
+					bindLostInserts(service, calendar, feedURL, lostInserts,
+							uids);
+					lostInserts.clear();
+				}
+			}
+			while (!operations.isEmpty()) {
+
+				// Fill the next batch
+				final CalendarEventFeed batch = new CalendarEventFeed();
+				final List entries = batch.getEntries();
+				sent.clear();
+				while (!operations.isEmpty() && entries.size() < batchSize) {
+					final CalendarEventEntry entry = (CalendarEventEntry) operations
+							.removeFirst();
+					final String batchID = Integer.toString(entries.size());
+					BatchUtils.setBatchId(entry, batchID);
+					entries.add(entry);
+					sent.put(batchID, entry);
+				}
+
+				// Send batch
+				CalendarEventFeed result;
+				try {
+					retryPolicy.before(endpoint);
+					log.debug("Sending " + entries.size()
+							+ " event(s) to Google Calendar...");
+					result = service.batch(batchURL, batch);
+					retryPolicy.succeeded(endpoint);
+				} catch (final Exception batchError) {
+					retryPolicy.failed(endpoint, batchError);
+					if (RetryPolicy.isClientError(batchError)) {
+						throw batchError;
+					}
+					log.debug("Batch request failed!", batchError);
+					failed.addAll(sent.values());
+					addInserts(lostInserts, sent.values());
+
+					// Rebuild connection (login expired)
+					if (batchError instanceof AuthenticationException) {
+						removeService(calendar.url);
+						service = getService(calendar);
+					}
+					continue;
+				}
+
+				// Map results back to the sent entries
+				final Iterator results = result.getEntries().iterator();
+				while (results.hasNext()) {
+					final CalendarEventEntry response = (CalendarEventEntry) results
+							.next();
+					final CalendarEventEntry entry = (CalendarEventEntry) sent
+							.remove(BatchUtils.getBatchId(response));
+					if (entry == null || BatchUtils.isSuccess(response)) {
+						continue;
+					}
+					final BatchStatus status = BatchUtils.getBatchStatus(response);
+					final int code = status == null ? 0 : status.getCode();
+					final String msg = status == null ? "" : code + " "
+							+ status.getReason() + "\r\n" + status.getContent();
+
+					// Remove reminders
+					if (msg.indexOf("many reminder") != -1) {
+						final List reminder = entry.getReminder();
+						log.warn("Too many reminders!");
+						if (reminder != null) {
+							reminder.clear();
+						}
+						failed.addLast(entry);
+						continue;
+					}
+
+					// Skip rejected entry (retry only server errors)
+					if (code >= 400 && code < 500) {
+						if (msg.indexOf("no instances") != -1
+								|| msg.indexOf("read-only") != -1
+								|| (code == 404 && BatchOperationType.DELETE
+										.equals(BatchUtils
+												.getBatchOperationType(entry)))) {
+
+							// Nothing to send (eg. already deleted)
+							log.debug("Unable to send event ("
+									+ getEntryTitle(entry) + ")!\r\n" + msg);
+						} else {
+
+							// Keep the event in the unpublished changes
+							log.warn("Unable to send event ("
+									+ getEntryTitle(entry) + ")!\r\n" + msg);
+							rejected.add(uids.get(entry));
+						}
+						continue;
+					}
+					failed.addLast(entry);
+				}
+
+				// Entries without result (interrupted batch) are resent
+				failed.addAll(sent.values());
+				addInserts(lostInserts, sent.values());
+			}
+			operations.addAll(failed);
+			failed.clear();
 		}
-		target = target.substring(i + 6);
-		i = target.indexOf('/');
-		if (i == -1) {
-			throw new Exception(
-					"Malformed iCal URL, 4th '/' character not found: "
-							+ request.url);
+	}
+
+	private static final void addInserts(
+			final LinkedList<CalendarEventEntry> inserts, final Collection entries) {
+		final Iterator iterator = entries.iterator();
+		CalendarEventEntry entry;
+		while (iterator.hasNext()) {
+			entry = (CalendarEventEntry) iterator.next();
+			if (BatchOperationType.INSERT.equals(BatchUtils
+					.getBatchOperationType(entry))) {
+				inserts.addLast(entry);
+			}
 		}
-		target = target.substring(0, i);
-		return new URL(CALENDAR_FEED_PREFIX + target + CALENDAR_FEED_POSTFIX);
+	}
+
+	/**
+	 * Google may have created the events of a batch whose response was lost.
+	 * Reloads the changed entries of the feed, and the inserts found by UID
+	 * (and original start) are resent as updates, so they aren't duplicated.
+	 */
+	private static final void bindLostInserts(final CalendarService service,
+			final CachedCalendar calendar, final URL feedURL,
+			final LinkedList<CalendarEventEntry> inserts,
+			final IdentityHashMap<CalendarEventEntry, String> uids)
+			throws Exception {
+		final RemoteEntryIndex index = indexGoogleEntries(service, calendar,
+				feedURL);
+		for (final CalendarEventEntry entry : inserts) {
+			final String uid = uids.get(entry);
+			final RemoteEntry remote = uid == null ? null : index.findByUID(uid,
+					RemoteEntry.getOriginalStart(entry));
+			if (remote == null || remote.editURL == null) {
+				continue;
+			}
+			log.debug("Event (" + getEntryTitle(entry)
+					+ ") already inserted, updating...");
+			entry.setId(remote.id);
+			entry.getLinks().add(new Link(Link.Rel.ENTRY_EDIT, Link.Type.ATOM,
+					remote.editURL));
+			BatchUtils.setBatchOperationType(entry, BatchOperationType.UPDATE);
+		}
+	}
+
+	private static final String getEntryTitle(final CalendarEventEntry entry) {
+		final TextConstruct title = entry.getTitle();
+		if (title != null && title.getPlainText() != null) {
+			return title.getPlainText();
+		}
+		return entry.getId();
 	}
 
 	// --- ICAL EVENT TO GOOGLE EVENT CONVERTER ---
@@ -893,10 +1248,16 @@ public final class GCalUtilities {
 						writer.write(Property.EXDATE);
 						writer.write(':');
 						if (date instanceof net.fortuna.ical4j.model.DateTime) {
-							final net.fortuna.ical4j.model.DateTime dateTime = (net.fortuna.ical4j.model.DateTime) date;
+
+							// Convert a copy (the date belongs to the cached,
+							// shared calendar)
+							final net.fortuna.ical4j.model.DateTime dateTime = new net.fortuna.ical4j.model.DateTime(
+									date.getTime());
 							dateTime.setUtc(true);
+							writer.write(dateTime.toString());
+						} else {
+							writer.write(date.toString());
 						}
-						writer.write(date.toString());
 					}
 				}
 				if (timeZone != null) {
@@ -1027,7 +1388,7 @@ public final class GCalUtilities {
 		return entry;
 	}
 
-	private static final DateTime toDateTime(final Date date) throws Exception {
+	static final DateTime toDateTime(final Date date) throws Exception {
 		if (date == null) {
 			return null;
 		}
@@ -1105,39 +1466,144 @@ public final class GCalUtilities {
 
 	// --- GOOGLE EVENT FEED ---
 
-	private static final List getGoogleEntries(CalendarService service,
-			final CachedCalendar calendar, final URL feedURL) throws Exception {
+	static final RemoteEntryIndex indexGoogleEntries(
+			final CalendarService service, final CachedCalendar calendar,
+			final URL feedURL) throws Exception {
+		final LinkedHashMap<String, RemoteEntry> entries = new LinkedHashMap<String, RemoteEntry>();
+		DateTime watermark = null;
 
-		// Request feed
-		CalendarEventFeed feed;
-		for (int tries = 0;; tries++) {
+		// Load changes since the last snapshot
+		final DateTime snapshot = EventFeedStore.load(calendar.url, entries);
+		if (snapshot != null) {
 			try {
-				final CalendarQuery query = new CalendarQuery(feedURL);
-				query.setMaxResults(MAX_FEED_ENTRIES);
-				feed = service.query(query,
-						CalendarEventFeed.class);
-				break;
-			} catch (final Exception loadError) {
-				if (tries == 5) {
-					throw loadError;
+				watermark = loadGoogleEntries(service, calendar, feedURL,
+						snapshot, entries);
+			} catch (final Exception incrementalError) {
+				log.debug("Unable to load changed events, reloading feed...",
+						incrementalError);
+				entries.clear();
+			}
+		}
+
+		// Load full feed (no snapshot or stale watermark)
+		if (watermark == null) {
+			watermark = loadGoogleEntries(service, calendar, feedURL, null,
+					entries);
+		}
+		EventFeedStore.save(calendar.url, watermark, entries.values());
+
+		// Index remote entries
+		final RemoteEntryIndex index = new RemoteEntryIndex();
+		final Iterator<RemoteEntry> entryIterator = entries.values().iterator();
+		while (entryIterator.hasNext()) {
+			index.add(entryIterator.next());
+		}
+		return index;
+	}
+
+	private static final DateTime loadGoogleEntries(CalendarService service,
+			final CachedCalendar calendar, final URL feedURL,
+			final DateTime updatedMin,
+			final LinkedHashMap<String, RemoteEntry> entries)
+			throws Exception {
+
+		// Request feed page by page
+		final String endpoint = getEndpoint(FEED_ENDPOINT, calendar.url);
+		DateTime watermark = null;
+		int startIndex = 1;
+		CalendarEventFeed feed;
+		for (;;) {
+			for (int tries = 0;; tries++) {
+				try {
+					retryPolicy.before(endpoint);
+					final CalendarQuery query = new CalendarQuery(feedURL);
+					if (updatedMin != null) {
+						query.setUpdatedMin(updatedMin);
+						query.setStringCustomParameter("showdeleted", "true");
+					}
+					query.setStartIndex(startIndex);
+					query.setMaxResults(FEED_PAGE_SIZE);
+					feed = service.query(query,
+							CalendarEventFeed.class);
+					retryPolicy.succeeded(endpoint);
+					break;
+				} catch (final Exception loadError) {
+					if (!retryPolicy.retry(endpoint, tries, loadError)) {
+						throw loadError;
+					}
+					log.debug("Connection refused, reconnecting...");
+
+					// Rebuild connection (login expired)
+					if (loadError instanceof AuthenticationException) {
+						removeService(calendar.url);
+						service = getService(calendar);
+					}
 				}
-				log.debug("Connection refused, reconnecting...");
+			}
+			if (watermark == null) {
+				watermark = feed.getUpdated();
+			}
 
-				// Rebuild connection
-				Thread.sleep(GOOGLE_RETRY_MILLIS);
-				servicePool.remove(calendar.url);
-				service = getService(calendar);
+			// Merge the entries of the page (only the indexed parts are kept)
+			final List page = feed.getEntries();
+			if (page.isEmpty()) {
+				break;
 			}
+			mergeEntries(entries, page);
+			startIndex += page.size();
+
+			// Last page
+			if (feed.getLink(Link.Rel.NEXT, Link.Type.ATOM) == null
+					&& startIndex > feed.getTotalResults()) {
+				break;
+			}
+			log.debug("Loaded " + (startIndex - 1) + " events of "
+					+ feed.getTotalResults() + " from Google Calendar...");
+		}
+		if (updatedMin != null) {
+			log.debug("Loaded " + (startIndex - 1)
+					+ " changed events from Google Calendar.");
+		}
+		if (watermark == null) {
+			watermark = new DateTime(new Date(), UTC);
 		}
+		return watermark;
+	}
+
+	private static final void mergeEntries(
+			final LinkedHashMap<String, RemoteEntry> entries,
+			final List<?> page) throws Exception {
+		final Iterator<?> entryIterator = page.iterator();
+		CalendarEventEntry entry;
+		while (entryIterator.hasNext()) {
+			entry = (CalendarEventEntry) entryIterator.next();
 
-		// Return list of CalendarEventEntries
-		return feed.getEntries();
+			// Deleted event (canceled instances are kept)
+			if (EventStatus.CANCELED.equals(entry.getStatus())
+					&& entry.getOriginalEvent() == null) {
+				entries.remove(entry.getId());
+				continue;
+			}
+			entries.put(entry.getId(), new RemoteEntry(entry));
+		}
 	}
 
 	// --- EVENT FINDER ---
 
-	private static final HashMap editURLMaps = new HashMap();
-	private static final HashMap uidMaps = new HashMap();
+	private static final BoundedCache<String, HashMap<String, URL>> editURLMaps = new BoundedCache<String, HashMap<String, URL>>(
+			"Edit URL maps", MAX_EDIT_URL_MAPS);
+	private static final BoundedCache<String, HashMap<String, String>> entryIDMaps = new BoundedCache<String, HashMap<String, String>>(
+			"Entry ID maps", MAX_EDIT_URL_MAPS);
+	private static final BoundedCache<String, HashMap<String, String>> uidMaps = new BoundedCache<String, HashMap<String, String>>(
+			"Remote UID maps", MAX_EDIT_URL_MAPS);
+
+	private static final boolean hasEditURLMap(final CachedCalendar calendar) {
+
+		// The three maps are evicted independently
+		return editURLMaps.containsKey(calendar.url)
+				&& entryIDMaps.containsKey(calendar.url)
+				&& uidMaps.containsKey(calendar.url);
+	}
 
 	private static final CalendarEventEntry getGoogleEntry(
 			final CalendarService service, final CachedCalendar calendar, final URL feedURL,
@@ -1158,20 +1624,20 @@ public final class GCalUtilities {
 			String uid) throws Exception {
 
 		// Create edit URL map
-		if (!editURLMaps.containsKey(calendar.url)) {
+		if (!hasEditURLMap(calendar)) {
 			createEditURLMap(service, calendar, feedURL);
 		}
 
 		// Get editURL
-		final HashMap editURLs = (HashMap) editURLMaps.get(calendar.url);
+		final HashMap<String, URL> editURLs = editURLMaps.get(calendar.url);
 		if (editURLs == null) {
 			return null;
 		}
-		URL editURL = (URL) editURLs.get(uid);
+		URL editURL = editURLs.get(uid);
 		if (editURL == null) {
 			uid = getRemoteUID(calendar, uid);
 			if (uid != null) {
-				editURL = (URL) editURLs.get(uid);
+				editURL = editURLs.get(uid);
 				if (editURL == null) {
 					return null;
 				}
@@ -1181,32 +1647,37 @@ public final class GCalUtilities {
 		}
 
 		// Load event
+		final String endpoint = getEndpoint(ENTRY_ENDPOINT, calendar.url);
 		for (int tries = 0;; tries++) {
 			try {
-				return service.getEntry(editURL,
+				retryPolicy.before(endpoint);
+				final CalendarEventEntry entry = service.getEntry(editURL,
 						CalendarEventEntry.class);
+				retryPolicy.succeeded(endpoint);
+				return entry;
 			} catch (final Exception loadError) {
-				if (tries == 5) {
+				if (!retryPolicy.retry(endpoint, tries, loadError)) {
 					log.debug("Unable to load event (" + editURL + ")!",
 							loadError);
 					return null;
 				}
 				log.debug("Connection refused, reconnecting...");
 
-				// Rebuild connection
-				Thread.sleep(GOOGLE_RETRY_MILLIS);
-				servicePool.remove(calendar.url);
-				service = getService(calendar);
+				// Rebuild connection (login expired)
+				if (loadError instanceof AuthenticationException) {
+					removeService(calendar.url);
+					service = getService(calendar);
+				}
 			}
 		}
 	}
 
 	private static final String getRemoteUID(final CachedCalendar calendar, final String id) {
-		final HashMap mappedUIDs = (HashMap) uidMaps.get(calendar.url);
+		final HashMap<String, String> mappedUIDs = uidMaps.get(calendar.url);
 		if (mappedUIDs == null) {
 			return null;
 		}
-		return (String) mappedUIDs.get(id);
+		return mappedUIDs.get(id);
 	}
 
 	private static final HashMap createEditURLMap(final CalendarService service,
@@ -1216,10 +1687,13 @@ public final class GCalUtilities {
 		final HashMap extensionMap = new HashMap();
 
 		// Create edit URL map
-		final List entries = getGoogleEntries(service, calendar, feedURL);
-		final HashMap editURLs = new HashMap();
-		final HashMap remoteUIDs = new HashMap();
+		final RemoteEntryIndex index = indexGoogleEntries(service, calendar,
+				feedURL);
+		final HashMap<String, URL> editURLs = new HashMap<String, URL>();
+		final HashMap<String, String> entryIDs = new HashMap<String, String>();
+		final HashMap<String, String> remoteUIDs = new HashMap<String, String>();
 		editURLMaps.put(calendar.url, editURLs);
+		entryIDMaps.put(calendar.url, entryIDs);
 		uidMaps.put(calendar.url, remoteUIDs);
 		final Calendar oldCalendar = ICalUtilities
 				.parseCalendar(calendar.previousBody);
@@ -1227,7 +1701,6 @@ public final class GCalUtilities {
 
 		// Loop on events
 		VEvent event;
-		final HashMap dateCache = new HashMap();
 		for(final VEvent event2 : events) {
 			event = event2;
 
@@ -1238,282 +1711,46 @@ public final class GCalUtilities {
 			}
 
 			// Find original event
-			final CalendarEventEntry oldEntry = findEntry(entries, event, dateCache);
+			final RemoteEntry oldEntry = index.find(event);
 			if (oldEntry == null) {
 				continue;
 			}
 
 			// Get alarm
-			final List reminders = oldEntry.getReminder();
-			if (reminders != null && !reminders.isEmpty()) {
-				extensionMap.put(uid + "\ta", reminders.get(0));
+			final Reminder reminder = oldEntry.getReminder();
+			if (reminder != null) {
+				extensionMap.put(uid + "\ta", reminder);
 			}
 
 			// Bind local UID to remote edit URL
-			final Link editLink = oldEntry.getEditLink();
-			if (editLink == null) {
+			if (oldEntry.editURL == null) {
 				continue;
 			}
-			final String editURL = editLink.getHref();
-			editURLs.put(uid, new URL(editURL));
+			editURLs.put(uid, new URL(oldEntry.editURL));
+			entryIDs.put(uid, oldEntry.id);
 
 			// Bind local UID to remote UID
-			final List extensionList = oldEntry.getExtendedProperty();
-			if (extensionList != null && !extensionList.isEmpty()) {
-				final Iterator extensions = extensionList.iterator();
-				ExtendedProperty extension;
-				while (extensions.hasNext()) {
-					extension = (ExtendedProperty) extensions.next();
-					final String name = extension.getName();
-					if (UID_EXTENSION_NAME.equals(name)) {
-						final String localUID = extension.getValue();
-						if (!uid.equals(localUID)) {
-							remoteUIDs.put(localUID, uid);
-						}
-						continue;
-					}
-
-					// Store extensions
-					if (CATEGORIES_EXTENSION_NAME.equals(name)) {
-						extensionMap.put(uid + "\tc", extension.getValue());
-						continue;
-					}
-					if (PRIORITY_EXTENSION_NAME.equals(name)) {
-						extensionMap.put(uid + "\tp", extension.getValue());
-						continue;
-					}
-					if (URL_EXTENSION_NAME.equals(name)) {
-						extensionMap.put(uid + "\tu", extension.getValue());
-						continue;
-					}
-				}
-			}
-		}
-
-		// Return extensions registry (or null)
-		return extensionMap;
-	}
-
-	private static final CalendarEventEntry findEntry(final List entries,
-			final VEvent event, final HashMap dateCache) throws Exception {
-
-		// Get UID and RID
-		final String uid = ICalUtilities.getUid(event);
-
-		// Get created
-		long created = 0;
-		final Created createdDate = event.getCreated();
-		if (createdDate != null) {
-			created = createdDate.getDate().getTime();
-		}
-
-		// Get start date
-		String startDate = null;
-		DtStart dtStart = event.getStartDate();
-		if (dtStart != null) {
-			final DateTime start = toDateTime(dtStart.getDate());
-			if (start != null) {
-				startDate = start.toUiString();
-			}
-		}
-
-		// Get end date
-		String endDate = null;
-		DtEnd dtEnd = event.getEndDate();
-		if (dtEnd != null) {
-			final DateTime end = toDateTime(dtEnd.getDate());
-			if (end != null) {
-				endDate = end.toUiString();
-			}
-		}
-
-		// Get title
-		String title = null;
-		final Summary summary = event.getSummary();
-		if (summary != null) {
-			title = ICalUtilities.normalizeLineBreaks(summary.getValue());
-		}
-
-		// Get content
-		String content = null;
-		final Description description = event.getDescription();
-		if (description != null) {
-			content = ICalUtilities.normalizeLineBreaks(description.getValue());
-		}
-
-		// Loop on Google Calendar
-		CalendarEventEntry bestEntry = null;
-		CalendarEventEntry entry;
-		int matchCounter, bestMatch = 0;
-		final Iterator entryIterator = entries.iterator();
-		while (entryIterator.hasNext()) {
-			entry = (CalendarEventEntry) entryIterator.next();
-			matchCounter = 0;
-
-			// Compare extended UID
-			final List extensionList = entry.getExtendedProperty();
-			if (uid != null && extensionList != null
-					&& !extensionList.isEmpty()) {
-				final Iterator extensions = extensionList.iterator();
-				while (extensions.hasNext()) {
-					final ExtendedProperty extension = (ExtendedProperty) extensions
-							.next();
-					if (UID_EXTENSION_NAME.equals(extension.getName())
-							&& uid.equals(extension.getValue())) {
-
-						// UID found -> 100% match -> stop finding
-						if (log.isDebugEnabled()) {
-							log.debug("Found event ("
-									+ ICalUtilities.getEventTitle(event)
-									+ ") in Google Calendar by unique ID.");
-						}
-						entryIterator.remove();
-						return entry;
-					}
-				}
-			}
-
-			// Compare created
-			final DateTime published = entry.getPublished();
-			if (created != 0 && published != null) {
-				final long remoteCreated = published.getValue();
-				if (created == remoteCreated) {
-					matchCounter++;
-				} else {
-					if (remoteCreated != 0 && created > remoteCreated) {
-						continue;
-					}
-				}
-			}
-
-			// Compare title
-			final TextConstruct titleConstruct = entry.getTitle();
-			if (titleConstruct != null && title != null) {
-				String titleText = titleConstruct.getPlainText();
-				if (titleText != null) {
-					titleText = ICalUtilities.normalizeLineBreaks(titleText);
-					if (titleText.equals(title)) {
-						matchCounter++;
-					}
-				}
+			if (oldEntry.uid != null && !uid.equals(oldEntry.uid)) {
+				remoteUIDs.put(oldEntry.uid, uid);
 			}
 
-			// Compare content
-			final Content contentConstruct = entry.getContent();
-			if (content != null && contentConstruct instanceof TextContent) {
-				final TextContent textContent = (TextContent) contentConstruct;
-				String contentText = textContent.getContent().getPlainText();
-				if (contentText != null) {
-					contentText = ICalUtilities
-							.normalizeLineBreaks(contentText);
-					if (content.length() != 0 && contentText.length() != 0
-							&& contentText.equals(content)) {
-						matchCounter++;
-					}
-				}
+			// Store extensions
+			if (oldEntry.categories != null) {
+				extensionMap.put(uid + "\tc", oldEntry.categories);
 			}
-
-			// Compare dates and times
-			final String id = entry.getId();
-			String entryStart = null;
-			String entryEnd = null;
-			final String startKey = "s\t" + id;
-			final String endKey = "e\t" + id;
-			entryStart = (String) dateCache.get(startKey);
-			if (startDate != null && entryStart != null) {
-				if (startDate.equals(entryStart)) {
-					matchCounter++;
-				}
+			if (oldEntry.priority != null) {
+				extensionMap.put(uid + "\tp", oldEntry.priority);
 			}
-			entryEnd = (String) dateCache.get(endKey);
-			if (endDate != null && entryEnd != null) {
-				if (endDate.equals(entryEnd)) {
-					matchCounter++;
-				}
+			if (oldEntry.url != null) {
+				extensionMap.put(uid + "\tu", oldEntry.url);
 			}
-			if (entryStart == null || entryEnd == null) {
-				final List whenList = entry.getTimes();
-				if (whenList.isEmpty()) {
-					final Recurrence recurrence = entry.getRecurrence();
-					if (recurrence != null) {
-						final VEvent holder = parseRecurrence(recurrence);
-						if (holder != null) {
-							dtStart = holder.getStartDate();
-							if (dtStart != null) {
-								final DateTime start = toDateTime(dtStart.getDate());
-								if (start != null && startDate != null) {
-									final boolean entryStartNull = (entryStart == null);
-									entryStart = start.toUiString();
-									dateCache.put(startKey, entryStart);
-									if (entryStart.equals(startDate)
-											&& entryStartNull) {
-										matchCounter++;
-									}
-								}
-							}
-							dtEnd = holder.getEndDate();
-							if (dtEnd != null) {
-								final DateTime end = toDateTime(dtEnd.getDate());
-								if (end != null && endDate != null) {
-									final boolean entryEndNull = (entryEnd == null);
-									entryEnd = end.toUiString();
-									dateCache.put(endKey, entryEnd);
-									if (entryEnd.equals(endDate)
-											&& entryEndNull) {
-										matchCounter++;
-									}
-								}
-							}
-						}
-					}
-				} else {
-					final When when = (When) whenList.get(0);
-					final DateTime start = when.getStartTime();
-					if (start != null && startDate != null) {
-						start.setTzShift(new Integer(0));
-						final boolean entryStartNull = (entryStart == null);
-						entryStart = start.toUiString();
-						dateCache.put(startKey, entryStart);
-						if (entryStart.equals(startDate) && entryStartNull) {
-							matchCounter++;
-						}
-					}
-
-					final DateTime end = when.getEndTime();
-					if (end != null && endDate != null) {
-						end.setTzShift(new Integer(0));
-						final boolean entryEndNull = (entryEnd == null);
-						entryEnd = end.toUiString();
-						dateCache.put(endKey, entryEnd);
-						if (entryEnd.equals(endDate) && entryEndNull) {
-							matchCounter++;
-						}
-					}
-				}
-			}
-
-			if (matchCounter > bestMatch) {
-				bestMatch = matchCounter;
-				bestEntry = entry;
-			}
-		}
-		if (bestMatch < 2) {
-			if (log.isDebugEnabled()) {
-				log.debug("Event (" + ICalUtilities.getEventTitle(event)
-						+ ") not found in Google Calendar.");
-			}
-			return null;
-		}
-		if (log.isDebugEnabled()) {
-			log.debug("Found event (" + ICalUtilities.getEventTitle(event)
-					+ ") in Google Calendar by " + bestMatch
-					+ " concordant property.");
 		}
-		entries.remove(bestEntry);
-		return bestEntry;
+
+		// Return extensions registry (or null)
+		return extensionMap;
 	}
 
-	private static final VEvent parseRecurrence(final Recurrence recurrence) {
+	static final VEvent parseRecurrence(final Recurrence recurrence) {
 		if (recurrence == null) {
 			return null;
 		}
@@ -1530,7 +1767,7 @@ public final class GCalUtilities {
 			writer.write(recurrence.getValue());
 			writer.write("\r\nEND:VEVENT\r\n");
 			writer.write("END:VCALENDAR\r\n");
-			final Calendar calendar = ICalUtilities.parseCalendar(writer.getBytes());
+			final Calendar calendar = ICalUtilities.buildCalendar(writer.getBytes());
 			return ICalUtilities.getEvents(calendar)[0];
 		} catch (final Exception ignored) {
 			log.debug(ignored);
@@ -1540,23 +1777,56 @@ public final class GCalUtilities {
 
 	// --- GOOGLE CONNECTION POOL ---
 
-	private static final HashMap servicePool = new HashMap();
-	private static final HashSet invalidCredentials = new HashSet();
+	private static final int POOL_LOCK_STRIPES = 16;
+	private static final long POOL_CLEANUP_MILLIS = 1000L * 60;
+
+	// Access ordered, the least recently used connection is evicted first
+	private static final LinkedHashMap servicePool = new LinkedHashMap(16,
+			0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected final boolean removeEldestEntry(final Map.Entry eldest) {
+			return size() > MAX_POOLED_CONNECTIONS;
+		}
+	};
+	private static final Set invalidCredentials = Collections
+			.synchronizedSet(new HashSet());
+
+	// Logins of different calendars don't block each other
+	private static final Object[] poolLocks = new Object[POOL_LOCK_STRIPES];
+	static {
+		for (int i = 0; i < poolLocks.length; i++) {
+			poolLocks[i] = new Object();
+		}
+
+		// Close idle connections in the background
+		final Timer cleaner = new Timer("Google connection pool cleaner", true);
+		cleaner.schedule(new TimerTask() {
 
-	private static final synchronized CalendarService getService(final Request request)
+			@Override
+			public final void run() {
+				removeIdleServices(System.currentTimeMillis());
+			}
+		}, POOL_CLEANUP_MILLIS, POOL_CLEANUP_MILLIS);
+	}
+
+	private static final CalendarService getService(final Request request)
 			throws Exception {
-		final long now = System.currentTimeMillis();
-		PooledGoogleService service;
-		service = (PooledGoogleService) servicePool.get(request.url);
+		PooledGoogleService service = getPooledService(request.url);
 		if (service != null) {
-			if (now - service.lastUsed > GOOGLE_CONNECTION_TIMEOUT) {
+			return service.service;
+		}
+		final int stripe = (request.url.hashCode() & 0x7fffffff)
+				% POOL_LOCK_STRIPES;
+		synchronized (poolLocks[stripe]) {
 
-				// Connection timeouted
-				servicePool.remove(request.url);
-				service = null;
+			// Connected by an other thread
+			service = getPooledService(request.url);
+			if (service != null) {
+				return service.service;
 			}
-		}
-		if (service == null) {
 
 			// Create a new connection
 			log.debug("Connecting to Google...");
@@ -1567,9 +1837,11 @@ public final class GCalUtilities {
 					+ request.password;
 			for (int tries = 0;; tries++) {
 				try {
+					retryPolicy.before(LOGIN_ENDPOINT);
 					service.service.setUserCredentials(
 							normalizeUsername(request.username),
 							request.password);
+					retryPolicy.succeeded(LOGIN_ENDPOINT);
 					invalidCredentials.remove(key);
 					break;
 				} catch (final InvalidCredentialsException wrongPassword) {
@@ -1577,22 +1849,58 @@ public final class GCalUtilities {
 					invalidCredentials.add(key);
 					throw wrongPassword;
 				} catch (final Exception ioException) {
-					if (tries == 5) {
+					if (!retryPolicy.retry(LOGIN_ENDPOINT, tries, ioException)) {
 						log.fatal("Connection refused!", ioException);
 						invalidCredentials.add(key);
 						throw ioException;
 					}
 					log.debug("Connection refused, reconnecting...");
-					Thread.sleep(GOOGLE_RETRY_MILLIS);
 				}
 			}
-			if (servicePool.size() > MAX_POOLED_CONNECTIONS) {
-				servicePool.clear();
+			service.lastUsed = System.currentTimeMillis();
+			synchronized (servicePool) {
+				servicePool.put(request.url, service);
+			}
+			return service.service;
+		}
+	}
+
+	private static final PooledGoogleService getPooledService(final String url) {
+		final long now = System.currentTimeMillis();
+		synchronized (servicePool) {
+			final PooledGoogleService service = (PooledGoogleService) servicePool
+					.get(url);
+			if (service == null) {
+				return null;
+			}
+			if (now - service.lastUsed > GOOGLE_CONNECTION_TIMEOUT) {
+
+				// Connection timeouted
+				servicePool.remove(url);
+				return null;
+			}
+			service.lastUsed = now;
+			return service;
+		}
+	}
+
+	private static final void removeService(final String url) {
+		synchronized (servicePool) {
+			servicePool.remove(url);
+		}
+	}
+
+	private static final void removeIdleServices(final long now) {
+		synchronized (servicePool) {
+			final Iterator services = servicePool.values().iterator();
+			PooledGoogleService service;
+			while (services.hasNext()) {
+				service = (PooledGoogleService) services.next();
+				if (now - service.lastUsed > GOOGLE_CONNECTION_TIMEOUT) {
+					services.remove();
+				}
 			}
-			servicePool.put(request.url, service);
 		}
-		service.lastUsed = now;
-		return service.service;
 	}
 
 	private static final String normalizeUsername(final String username) {
@@ -1630,19 +1938,22 @@ public final class GCalUtilities {
 		CalendarFeed resultFeed;
 		for (int tries = 0;; tries++) {
 			try {
+				retryPolicy.before(METAFEED_ENDPOINT);
 				resultFeed = service.getFeed(feedUrl,
 						CalendarFeed.class);
+				retryPolicy.succeeded(METAFEED_ENDPOINT);
 				break;
 			} catch (final Exception loadError) {
-				if (tries == 3) {
+				if (!retryPolicy.retry(METAFEED_ENDPOINT, tries, loadError)) {
 					throw loadError;
 				}
 				log.debug("Connection refused, reconnecting...");
 
-				// Rebuild connection
-				Thread.sleep(GOOGLE_RETRY_MILLIS);
-				servicePool.clear();
-				service = getService(request);
+				// Rebuild connection (login expired)
+				if (loadError instanceof AuthenticationException) {
+					removeService(request.url);
+					service = getService(request);
+				}
 			}
 		}
 
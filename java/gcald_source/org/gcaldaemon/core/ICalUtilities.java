@@ -15,8 +15,8 @@ package org.gcaldaemon.core;
 import java.io.ByteArrayInputStream;
 import java.io.LineNumberReader;
 import java.io.StringReader;
+import java.security.MessageDigest;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.LinkedList;
 
 import net.fortuna.ical4j.data.CalendarBuilder;
@@ -30,7 +30,6 @@ import net.fortuna.ical4j.model.DateTime;
 import net.fortuna.ical4j.model.Dur;
 import net.fortuna.ical4j.model.Property;
 import net.fortuna.ical4j.model.PropertyList;
-import net.fortuna.ical4j.model.Recur;
 import net.fortuna.ical4j.model.TimeZone;
 import net.fortuna.ical4j.model.TimeZoneRegistry;
 import net.fortuna.ical4j.model.UtcOffset;
@@ -39,7 +38,6 @@ import net.fortuna.ical4j.model.component.VAlarm;
 import net.fortuna.ical4j.model.component.VEvent;
 import net.fortuna.ical4j.model.component.VTimeZone;
 import net.fortuna.ical4j.model.component.VToDo;
-import net.fortuna.ical4j.model.parameter.Value;
 import net.fortuna.ical4j.model.property.Attendee;
 import net.fortuna.ical4j.model.property.Clazz;
 import net.fortuna.ical4j.model.property.Description;
@@ -74,8 +72,9 @@ final class ICalUtilities {
 
 	// --- CONSTANTS ---
 
-	private static final long YEAR = 1000L * 60 * 60 * 24 * 365;
 	private static final int MAX_REGISTRY_SIZE = 100;
+	private static final int MAX_PARSED_CALENDARS = 8;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
 
 	/**
 	 * Enabled alarm minutes in Google Calendar
@@ -89,11 +88,13 @@ final class ICalUtilities {
 
 	// --- RECURRENCE RULE CACHE ---
 
-	private static final HashMap recurrenceCache = new HashMap();
+	private static final BoundedCache<String, RecurrenceDigest> recurrenceCache = new BoundedCache<String, RecurrenceDigest>(
+			"Recurrence cache", MAX_REGISTRY_SIZE);
 
 	// --- ALARM REGISTRY ---
 
-	private static final HashMap alarmRegistry = new HashMap();
+	private static final BoundedCache<String, String> alarmRegistry = new BoundedCache<String, String>(
+			"Alarm registry", MAX_REGISTRY_SIZE);
 	private static boolean enableExtensions;
 
 	// --- PRIVATE CONSTRUCTOR ---
@@ -103,20 +104,31 @@ final class ICalUtilities {
 
 	// --- ICAL FILE PARSERS ---
 
-	private static final CalendarBuilder builder = new CalendarBuilder();
+	// Time zones registered by any builder are visible to all of them
+	private static final TimeZoneRegistry registry = new SharedTimeZoneRegistry();
+
+	// CalendarBuilders are not thread-safe, each thread parses with its own
+	private static final ThreadLocal builders = new ThreadLocal() {
+
+		@Override
+		protected final Object initialValue() {
+			return new CalendarBuilder(registry);
+		}
+	};
 
 	static final boolean setTimeZone(final String id, final String offset) throws Exception {
 
-		// Get time zone registry
-		final TimeZoneRegistry registry = builder.getRegistry();
+		// Get time zone from the shared registry
 		final TimeZone timeZone = registry.getTimeZone(id);
 		if (timeZone == null) {
 			return false;
 		}
-		final VTimeZone vTimeZone = timeZone.getVTimeZone();
-		if (vTimeZone == null) {
+		if (timeZone.getVTimeZone() == null) {
 			return false;
 		}
+
+		// Modify a copy (the registered instance may be in use)
+		final VTimeZone vTimeZone = (VTimeZone) timeZone.getVTimeZone().copy();
 		Component seasonalTime = vTimeZone.getObservances().getComponent(
 				Observance.STANDARD);
 		if (seasonalTime == null) {
@@ -135,16 +147,51 @@ final class ICalUtilities {
 		// Set the new offset (eg: +040000)
 		final UtcOffset utcOffset = new UtcOffset(offset);
 		offsetTo.setOffset(utcOffset);
-		registry.register(timeZone);
+		registry.register(new TimeZone(vTimeZone));
 		return true;
 	}
 
-	protected static final Calendar parseCalendar(byte[] iCalBytes)
+	// --- PARSED CALENDAR CACHE ---
+
+	// Parsed calendars by content digest
+	private static final BoundedCache<String, Calendar> parsedCalendars = new BoundedCache<String, Calendar>(
+			"Parsed calendar cache", MAX_PARSED_CALENDARS);
+
+	/**
+	 * Parses an iCalendar file. Identical content is parsed only once, the
+	 * returned Calendar may be shared with other callers and must not be
+	 * modified.
+	 */
+	protected static final Calendar parseCalendar(final byte[] iCalBytes)
+			throws Exception {
+		final String key = getDigest(iCalBytes);
+		Calendar calendar = parsedCalendars.get(key);
+		if (calendar != null) {
+			return calendar;
+		}
+		calendar = buildCalendar(iCalBytes);
+		parsedCalendars.put(key, calendar);
+		return calendar;
+	}
+
+	private static final String getDigest(final byte[] bytes) throws Exception {
+		final byte[] hash = MessageDigest.getInstance("SHA-1").digest(bytes);
+		final char[] chars = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++) {
+			chars[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX[hash[i] & 0xf];
+		}
+		return bytes.length + ":" + new String(chars);
+	}
+
+	/**
+	 * Parses an iCalendar file without caching (for small, one-off content).
+	 */
+	static final Calendar buildCalendar(byte[] iCalBytes)
 			throws Exception {
+		final CalendarBuilder builder = (CalendarBuilder) builders.get();
 		try {
-			synchronized (builder) {
-				return builder.build(new ByteArrayInputStream(iCalBytes));
-			}
+			return builder.build(new ByteArrayInputStream(iCalBytes));
 		} catch (final ParserException parserException) {
 			try {
 
@@ -194,9 +241,7 @@ final class ICalUtilities {
 				reader = null;
 				original = null;
 				iCalBytes = writer.getBytes();
-				synchronized (builder) {
-					return builder.build(new ByteArrayInputStream(iCalBytes));
-				}
+				return builder.build(new ByteArrayInputStream(iCalBytes));
 			} catch (final Exception secondException) {
 
 				// Unable to recover
@@ -325,9 +370,8 @@ final class ICalUtilities {
 		}
 
 		// Compare recurrence rules
-		oldValue = getRecurrenceDates(oldEvent);
-		newValue = getRecurrenceDates(newEvent);
-		if (!isEquals(oldValue, newValue)) {
+		if (!RecurrenceDigest.isEquals(getRecurrenceDigest(oldEvent),
+				getRecurrenceDigest(newEvent))) {
 			return false;
 		}
 
@@ -402,7 +446,7 @@ final class ICalUtilities {
 				if (oldValue == null && !enableExtensions) {
 
 					// Get previous alarm from registry
-					oldValue = (String) alarmRegistry.get(key);
+					oldValue = alarmRegistry.get(key);
 				}
 				if (newValue == null) {
 					if (!enableExtensions) {
@@ -422,9 +466,6 @@ final class ICalUtilities {
 
 						// Store alarm
 						if (!enableExtensions) {
-							if (alarmRegistry.size() > MAX_REGISTRY_SIZE) {
-								alarmRegistry.clear();
-							}
 							alarmRegistry.put(key, newValue);
 						}
 						return false;
@@ -537,44 +578,22 @@ final class ICalUtilities {
 		return dates;
 	}
 
-	private static final String getRecurrenceDates(final VEvent event)
-			throws Exception {
+	private static final RecurrenceDigest getRecurrenceDigest(
+			final VEvent event) throws Exception {
 		final RRule rule = (RRule) event.getProperty(Property.RRULE);
-		if (rule != null) {
-			final String cacheKey = event.getStartDate().getValue() + '\t'
-					+ rule.getValue();
-
-			// Get from cache (HashMap synchronized via "Synchronizer" object)
-			String testDates = (String) recurrenceCache.get(cacheKey);
-			if (testDates != null) {
-				return testDates;
-			}
-			final Recur recur = rule.getRecur();
-			final DateTime startDate = new DateTime(event.getStartDate().getDate());
-			long interval = YEAR * 2;
-			if (Recur.YEARLY.equals(recur.getFrequency())) {
-				interval *= 5;
-			}
-			final DateTime endDate = new DateTime(startDate.getTime() + (interval));
-			final DateList list = recur.getDates(startDate, endDate, Value.DATE_TIME);
-			final String[] dates = new String[list.size()];
-			for (int i = 0; i < dates.length; i++) {
-				dates[i] = dateToString((DateTime) list.get(i));
-			}
-			Arrays.sort(dates, String.CASE_INSENSITIVE_ORDER);
-			final QuickWriter writer = new QuickWriter(300);
-			for(final String date : dates) {
-				writer.write(date);
-				writer.write('\t');
-			}
-			if (recurrenceCache.size() > MAX_REGISTRY_SIZE) {
-				recurrenceCache.clear();
-			}
-			testDates = writer.toString();
-			recurrenceCache.put(cacheKey, testDates);
-			return testDates;
+		final DtStart start = event.getStartDate();
+		final String cacheKey = RecurrenceDigest.getKey(rule, start);
+		if (cacheKey == null) {
+			return null;
+		}
+
+		// Get from cache
+		RecurrenceDigest digest = recurrenceCache.get(cacheKey);
+		if (digest == null) {
+			digest = RecurrenceDigest.create(rule, start);
+			recurrenceCache.put(cacheKey, digest);
 		}
-		return null;
+		return digest;
 	}
 
 	private static final String dateToString(final Date date) throws Exception {
@@ -0,0 +1,173 @@
+//
+// GCALDaemon is an OS-independent Java program that offers two-way
+// synchronization between Google Calendar and various iCalalendar (RFC 2445)
+// compatible calendar applications (Sunbird, Rainlendar, iCal, Lightning, etc).
+//
+// Apache License
+// Version 2.0, January 2004
+// http://www.apache.org/licenses/
+//
+// Project home:
+// http://gcaldaemon.sourceforge.net
+//
+package org.gcaldaemon.core;
+
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+import net.fortuna.ical4j.model.DateList;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Recur;
+import net.fortuna.ical4j.model.parameter.Value;
+import net.fortuna.ical4j.model.property.DtStart;
+import net.fortuna.ical4j.model.property.RRule;
+
+/**
+ * Compact form of a recurring event's RRULE, used by the event comparator.
+ * Holds the normalized rule (parts sorted, upper case), the start in millis,
+ * and - computed only when two different rules have to be compared - the
+ * number and two 64-bit hashes of the occurrences (2 years, 10 years for
+ * yearly rules). Identical rules with the same start are equal without
+ * expanding them.
+ *
+ * @see ICalUtilities#isEquals
+ */
+final class RecurrenceDigest {
+
+	// --- CONSTANTS ---
+
+	private static final long YEAR = 1000L * 60 * 60 * 24 * 365;
+
+	// --- PROPERTIES ---
+
+	private final String rule;
+	private final long start;
+	private final Recur recur;
+	private final DateTime startDate;
+
+	// --- EXPANSION HASH ---
+
+	private boolean expanded;
+	private int count;
+	private long hash1;
+	private long hash2;
+
+	// --- CONSTRUCTOR ---
+
+	private RecurrenceDigest(final String rule, final DateTime startDate,
+			final Recur recur) {
+		this.rule = rule;
+		this.start = startDate.getTime();
+		this.startDate = startDate;
+		this.recur = recur;
+	}
+
+	// --- FACTORY ---
+
+	/**
+	 * Returns the cache key of the RRULE (start millis + normalized rule).
+	 */
+	static final String getKey(final RRule rRule, final DtStart dtStart)
+			throws Exception {
+		if (rRule == null || dtStart == null || dtStart.getDate() == null) {
+			return null;
+		}
+		return dtStart.getDate().getTime() + "\t"
+				+ normalizeRule(rRule.getValue());
+	}
+
+	static final RecurrenceDigest create(final RRule rRule,
+			final DtStart dtStart) throws Exception {
+		return new RecurrenceDigest(normalizeRule(rRule.getValue()),
+				new DateTime(dtStart.getDate()), rRule.getRecur());
+	}
+
+	private static final String normalizeRule(final String value) {
+		if (value == null) {
+			return "";
+		}
+		final StringTokenizer st = new StringTokenizer(value.toUpperCase(), ";");
+		final String[] parts = new String[st.countTokens()];
+		for (int i = 0; i < parts.length; i++) {
+			parts[i] = st.nextToken().trim();
+		}
+		Arrays.sort(parts);
+		final StringBuffer buffer = new StringBuffer(value.length());
+		for (int i = 0; i < parts.length; i++) {
+			if (parts[i].length() == 0) {
+				continue;
+			}
+			if (buffer.length() != 0) {
+				buffer.append(';');
+			}
+			buffer.append(parts[i]);
+		}
+		return buffer.toString();
+	}
+
+	// --- COMPARATOR ---
+
+	/**
+	 * Compares two digests (null = not recurring). Rules without occurrences
+	 * are equal to null.
+	 */
+	static final boolean isEquals(final RecurrenceDigest digest1,
+			final RecurrenceDigest digest2) {
+		if (digest1 == digest2) {
+			return true;
+		}
+		if (digest1 == null) {
+			return digest2.getCount() == 0;
+		}
+		if (digest2 == null) {
+			return digest1.getCount() == 0;
+		}
+		if (digest1.start == digest2.start && digest1.rule.equals(digest2.rule)) {
+			return true;
+		}
+		synchronized (digest1) {
+			digest1.expand();
+		}
+		synchronized (digest2) {
+			digest2.expand();
+		}
+		return digest1.count == digest2.count && digest1.hash1 == digest2.hash1
+				&& digest1.hash2 == digest2.hash2;
+	}
+
+	private final synchronized int getCount() {
+		expand();
+		return count;
+	}
+
+	// --- EXPANSION ---
+
+	private final void expand() {
+		if (expanded) {
+			return;
+		}
+		long interval = YEAR * 2;
+		if (Recur.YEARLY.equals(recur.getFrequency())) {
+			interval *= 5;
+		}
+		final DateTime endDate = new DateTime(start + interval);
+		final DateList list = recur.getDates(startDate, endDate,
+				Value.DATE_TIME);
+		final long[] times = new long[list.size()];
+		for (int i = 0; i < times.length; i++) {
+			times[i] = ((java.util.Date) list.get(i)).getTime();
+		}
+		Arrays.sort(times);
+		long h1 = 0xcbf29ce484222325L;
+		long h2 = 17;
+		for (int i = 0; i < times.length; i++) {
+			h1 = (h1 ^ times[i]) * 0x100000001b3L;
+			h2 = h2 * 31 + (times[i] ^ (times[i] >>> 32));
+		}
+		count = times.length;
+		hash1 = h1;
+		hash2 = h2;
+		expanded = true;
+	}
+
+}
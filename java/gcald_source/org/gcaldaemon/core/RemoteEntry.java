@@ -0,0 +1,208 @@
+//
+// GCALDaemon is an OS-independent Java program that offers two-way
+// synchronization between Google Calendar and various iCalalendar (RFC 2445)
+// compatible calendar applications (Sunbird, Rainlendar, iCal, Lightning, etc).
+//
+// Apache License
+// Version 2.0, January 2004
+// http://www.apache.org/licenses/
+//
+// Project home:
+// http://gcaldaemon.sourceforge.net
+//
+package org.gcaldaemon.core;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.List;
+
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.property.DtEnd;
+import net.fortuna.ical4j.model.property.DtStart;
+
+import com.google.gdata.data.Content;
+import com.google.gdata.data.DateTime;
+import com.google.gdata.data.Link;
+import com.google.gdata.data.TextConstruct;
+import com.google.gdata.data.TextContent;
+import com.google.gdata.data.calendar.CalendarEventEntry;
+import com.google.gdata.data.extensions.ExtendedProperty;
+import com.google.gdata.data.extensions.OriginalEvent;
+import com.google.gdata.data.extensions.Recurrence;
+import com.google.gdata.data.extensions.Reminder;
+import com.google.gdata.data.extensions.When;
+
+/**
+ * The parts of a Google Calendar event entry that the edit URL map needs:
+ * entry ID, edit URL, UID extension, original start (recurrence exceptions),
+ * the properties compared with the local events (created, title, content,
+ * start, end) and the values written back into the local calendar
+ * (reminder, categories, priority, URL). Feed pages
+ * are reduced to these, so only one page of full entries is kept in memory;
+ * an entry is loaded again (by its edit URL) when it's needed.
+ *
+ * @see RemoteEntryIndex
+ * @see EventFeedStore
+ */
+final class RemoteEntry implements Serializable {
+
+	// --- SERIAL VERSION ---
+
+	private static final long serialVersionUID = 1L;
+
+	// --- PROPERTIES ---
+
+	final String id;
+	final String editURL;
+
+	String uid;
+	String originalStart;
+	long created;
+	String title;
+	String content;
+	String start;
+	String end;
+
+	boolean reminder;
+	Integer reminderMinutes;
+	String categories;
+	String priority;
+	String url;
+
+	// --- CONSTRUCTOR ---
+
+	RemoteEntry(final CalendarEventEntry entry) throws Exception {
+		id = entry.getId();
+		final Link editLink = entry.getEditLink();
+		editURL = editLink == null ? null : editLink.getHref();
+
+		// Get extensions
+		final List<?> extensionList = entry.getExtendedProperty();
+		if (extensionList != null && !extensionList.isEmpty()) {
+			final Iterator<?> extensions = extensionList.iterator();
+			ExtendedProperty extension;
+			while (extensions.hasNext()) {
+				extension = (ExtendedProperty) extensions.next();
+				final String name = extension.getName();
+				if (GCalUtilities.UID_EXTENSION_NAME.equals(name)) {
+					if (uid == null) {
+						uid = extension.getValue();
+					}
+					continue;
+				}
+				if (GCalUtilities.CATEGORIES_EXTENSION_NAME.equals(name)) {
+					categories = extension.getValue();
+					continue;
+				}
+				if (GCalUtilities.PRIORITY_EXTENSION_NAME.equals(name)) {
+					priority = extension.getValue();
+					continue;
+				}
+				if (GCalUtilities.URL_EXTENSION_NAME.equals(name)) {
+					url = extension.getValue();
+				}
+			}
+		}
+
+		// Get original start (recurrence exception)
+		originalStart = getOriginalStart(entry);
+
+		// Get reminder
+		final List<?> reminders = entry.getReminder();
+		if (reminders != null && !reminders.isEmpty()) {
+			reminder = true;
+			reminderMinutes = ((Reminder) reminders.get(0)).getMinutes();
+		}
+
+		// Get created
+		final DateTime published = entry.getPublished();
+		if (published != null) {
+			created = published.getValue();
+		}
+
+		// Get title
+		final TextConstruct titleConstruct = entry.getTitle();
+		if (titleConstruct != null) {
+			final String titleText = titleConstruct.getPlainText();
+			if (titleText != null) {
+				title = ICalUtilities.normalizeLineBreaks(titleText);
+			}
+		}
+
+		// Get content
+		final Content contentConstruct = entry.getContent();
+		if (contentConstruct instanceof TextContent) {
+			final TextContent textContent = (TextContent) contentConstruct;
+			final String contentText = textContent.getContent().getPlainText();
+			if (contentText != null && contentText.length() != 0) {
+				content = ICalUtilities.normalizeLineBreaks(contentText);
+			}
+		}
+
+		// Get dates and times
+		final List<?> whenList = entry.getTimes();
+		if (whenList.isEmpty()) {
+			final Recurrence recurrence = entry.getRecurrence();
+			if (recurrence != null) {
+				final VEvent holder = GCalUtilities.parseRecurrence(recurrence);
+				if (holder != null) {
+					final DtStart dtStart = holder.getStartDate();
+					if (dtStart != null) {
+						final DateTime dateTime = GCalUtilities
+								.toDateTime(dtStart.getDate());
+						if (dateTime != null) {
+							start = dateTime.toUiString();
+						}
+					}
+					final DtEnd dtEnd = holder.getEndDate();
+					if (dtEnd != null) {
+						final DateTime dateTime = GCalUtilities
+								.toDateTime(dtEnd.getDate());
+						if (dateTime != null) {
+							end = dateTime.toUiString();
+						}
+					}
+				}
+			}
+		} else {
+			final When when = (When) whenList.get(0);
+			start = toUiString(when.getStartTime());
+			end = toUiString(when.getEndTime());
+		}
+	}
+
+	/**
+	 * Returns the original start (UTC) of a recurrence exception, or null.
+	 */
+	static final String getOriginalStart(final CalendarEventEntry entry) {
+		final OriginalEvent original = entry.getOriginalEvent();
+		if (original == null || original.getOriginalStartTime() == null) {
+			return null;
+		}
+		return toUiString(original.getOriginalStartTime().getStartTime());
+	}
+
+	private static final String toUiString(final DateTime dateTime) {
+		if (dateTime == null) {
+			return null;
+		}
+		dateTime.setTzShift(Integer.valueOf(0));
+		return dateTime.toUiString();
+	}
+
+	// --- REMINDER ---
+
+	/**
+	 * Returns a copy of the first reminder (only the minutes are kept), or
+	 * null.
+	 */
+	final Reminder getReminder() {
+		if (!reminder) {
+			return null;
+		}
+		final Reminder copy = new Reminder();
+		copy.setMinutes(reminderMinutes);
+		return copy;
+	}
+
+}
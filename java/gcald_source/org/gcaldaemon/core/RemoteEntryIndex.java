@@ -0,0 +1,346 @@
+//
+// GCALDaemon is an OS-independent Java program that offers two-way
+// synchronization between Google Calendar and various iCalalendar (RFC 2445)
+// compatible calendar applications (Sunbird, Rainlendar, iCal, Lightning, etc).
+//
+// Apache License
+// Version 2.0, January 2004
+// http://www.apache.org/licenses/
+//
+// Project home:
+// http://gcaldaemon.sourceforge.net
+//
+package org.gcaldaemon.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.TreeMap;
+
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.property.Created;
+import net.fortuna.ical4j.model.property.Description;
+import net.fortuna.ical4j.model.property.DtEnd;
+import net.fortuna.ical4j.model.property.DtStart;
+import net.fortuna.ical4j.model.property.Summary;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.gdata.data.DateTime;
+
+/**
+ * Index over a Google Calendar event feed, filled page by page. Remote
+ * entries are indexed by UID extension, by start and end together, and by
+ * each compared property (created, title, content, start, end). Finding the
+ * remote pair of a local event only scores the entries with the same start
+ * and end; the per-property buckets are used when there aren't any (eg. the
+ * event was moved). Like the linear search it replaces, the first unused
+ * entry with the same UID (in feed order) wins. Every entry is returned at
+ * most once.
+ *
+ * @see GCalUtilities#createEditURLMap
+ */
+final class RemoteEntryIndex {
+
+	// --- LOGGER ---
+
+	private static final Log log = LogFactory.getLog(RemoteEntryIndex.class);
+
+	// --- INDEXES ---
+
+	private final HashMap<Object, LinkedList<IndexedEntry>> byUID = new HashMap<Object, LinkedList<IndexedEntry>>();
+	private final HashMap<Object, LinkedList<IndexedEntry>> byCreated = new HashMap<Object, LinkedList<IndexedEntry>>();
+	private final HashMap<Object, LinkedList<IndexedEntry>> byTitle = new HashMap<Object, LinkedList<IndexedEntry>>();
+	private final HashMap<Object, LinkedList<IndexedEntry>> byContent = new HashMap<Object, LinkedList<IndexedEntry>>();
+	private final HashMap<Object, LinkedList<IndexedEntry>> byStart = new HashMap<Object, LinkedList<IndexedEntry>>();
+	private final HashMap<Object, LinkedList<IndexedEntry>> byEnd = new HashMap<Object, LinkedList<IndexedEntry>>();
+	private final HashMap<Object, LinkedList<IndexedEntry>> byStartEnd = new HashMap<Object, LinkedList<IndexedEntry>>();
+
+	private int order;
+
+	// --- INDEX BUILDER ---
+
+	final void add(final RemoteEntry entry) {
+		final IndexedEntry indexed = new IndexedEntry(entry, order++);
+		addToBucket(byUID, entry.uid, indexed);
+		if (entry.created != 0) {
+			addToBucket(byCreated, Long.valueOf(entry.created), indexed);
+		}
+		addToBucket(byTitle, entry.title, indexed);
+		addToBucket(byContent, entry.content, indexed);
+		addToBucket(byStart, entry.start, indexed);
+		addToBucket(byEnd, entry.end, indexed);
+		if (entry.start != null && entry.end != null) {
+			addToBucket(byStartEnd, entry.start + '\t' + entry.end, indexed);
+		}
+	}
+
+	private static final void addToBucket(
+			final HashMap<Object, LinkedList<IndexedEntry>> index,
+			final Object key, final IndexedEntry indexed) {
+		if (key == null) {
+			return;
+		}
+		LinkedList<IndexedEntry> bucket = index.get(key);
+		if (bucket == null) {
+			bucket = new LinkedList<IndexedEntry>();
+			index.put(key, bucket);
+		}
+		bucket.addLast(indexed);
+	}
+
+	// --- EVENT FINDER ---
+
+	final RemoteEntry find(final VEvent event) throws Exception {
+
+		// Compare extended UID (100% match)
+		final String uid = ICalUtilities.getUid(event);
+		if (uid != null) {
+			final IndexedEntry found = firstUnused(byUID.get(uid));
+			if (found != null) {
+				if (log.isDebugEnabled()) {
+					log.debug("Found event (" + ICalUtilities.getEventTitle(event)
+							+ ") in Google Calendar by unique ID.");
+				}
+				found.used = true;
+				return found.entry;
+			}
+		}
+
+		// Get created
+		long created = 0;
+		final Created createdDate = event.getCreated();
+		if (createdDate != null) {
+			created = createdDate.getDate().getTime();
+		}
+
+		// Get start date
+		String startDate = null;
+		final DtStart dtStart = event.getStartDate();
+		if (dtStart != null) {
+			final DateTime start = GCalUtilities.toDateTime(dtStart.getDate());
+			if (start != null) {
+				startDate = start.toUiString();
+			}
+		}
+
+		// Get end date
+		String endDate = null;
+		final DtEnd dtEnd = event.getEndDate();
+		if (dtEnd != null) {
+			final DateTime end = GCalUtilities.toDateTime(dtEnd.getDate());
+			if (end != null) {
+				endDate = end.toUiString();
+			}
+		}
+
+		// Get title
+		String title = null;
+		final Summary summary = event.getSummary();
+		if (summary != null) {
+			title = ICalUtilities.normalizeLineBreaks(summary.getValue());
+		}
+
+		// Get content
+		String content = null;
+		final Description description = event.getDescription();
+		if (description != null) {
+			content = ICalUtilities.normalizeLineBreaks(description.getValue());
+		}
+
+		// Entries with the same start and end are two concordant properties,
+		// so they are scored first (common titles and contents aren't scanned)
+		final TreeMap<Integer, IndexedEntry> candidates = new TreeMap<Integer, IndexedEntry>();
+		if (startDate != null && endDate != null) {
+			addCandidates(candidates, getBucket(byStartEnd, startDate + '\t'
+					+ endDate));
+		}
+		IndexedEntry bestEntry = findBest(candidates, created, title, content,
+				startDate, endDate);
+		if (bestEntry == null) {
+
+			// Collect entries sharing a property (in feed order). A pair needs
+			// two concordant properties, so it's also in a second bucket and
+			// the largest bucket (eg. a common title) can be skipped.
+			final ArrayList<LinkedList<IndexedEntry>> buckets = new ArrayList<LinkedList<IndexedEntry>>(5);
+			buckets.add(created == 0 ? null : getBucket(byCreated, Long
+					.valueOf(created)));
+			buckets.add(getBucket(byTitle, title));
+			buckets.add(getBucket(byContent, content));
+			buckets.add(getBucket(byStart, startDate));
+			buckets.add(getBucket(byEnd, endDate));
+			int largest = -1;
+			for (int i = 0; i < buckets.size(); i++) {
+				if (buckets.get(i) != null
+						&& (largest == -1 || buckets.get(i).size() > buckets
+								.get(largest).size())) {
+					largest = i;
+				}
+			}
+			candidates.clear();
+			for (int i = 0; i < buckets.size(); i++) {
+				if (i != largest) {
+					addCandidates(candidates, buckets.get(i));
+				}
+			}
+			bestEntry = findBest(candidates, created, title, content,
+					startDate, endDate);
+		}
+		if (bestEntry == null) {
+			if (log.isDebugEnabled()) {
+				log.debug("Event (" + ICalUtilities.getEventTitle(event)
+						+ ") not found in Google Calendar.");
+			}
+			return null;
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Found event (" + ICalUtilities.getEventTitle(event)
+					+ ") in Google Calendar by " + bestEntry.score
+					+ " concordant property.");
+		}
+		bestEntry.used = true;
+		return bestEntry.entry;
+	}
+
+	/**
+	 * Scores the candidates (in feed order), returns the best one with at
+	 * least two concordant properties, or null.
+	 */
+	private static final IndexedEntry findBest(
+			final TreeMap<Integer, IndexedEntry> candidates,
+			final long created, final String title, final String content,
+			final String startDate, final String endDate) {
+		IndexedEntry bestEntry = null;
+		IndexedEntry indexed;
+		int matchCounter, bestMatch = 0;
+		final Iterator<IndexedEntry> candidateIterator = candidates.values()
+				.iterator();
+		while (candidateIterator.hasNext()) {
+			indexed = candidateIterator.next();
+			matchCounter = 0;
+
+			// Compare created
+			if (created != 0 && indexed.entry.created != 0) {
+				if (created == indexed.entry.created) {
+					matchCounter++;
+				} else {
+					if (created > indexed.entry.created) {
+						continue;
+					}
+				}
+			}
+
+			// Compare title
+			if (title != null && title.equals(indexed.entry.title)) {
+				matchCounter++;
+			}
+
+			// Compare content
+			if (content != null && content.length() != 0
+					&& content.equals(indexed.entry.content)) {
+				matchCounter++;
+			}
+
+			// Compare dates and times
+			if (startDate != null && startDate.equals(indexed.entry.start)) {
+				matchCounter++;
+			}
+			if (endDate != null && endDate.equals(indexed.entry.end)) {
+				matchCounter++;
+			}
+
+			if (matchCounter > bestMatch) {
+				bestMatch = matchCounter;
+				bestEntry = indexed;
+			}
+		}
+		if (bestMatch < 2) {
+			return null;
+		}
+		bestEntry.score = bestMatch;
+		return bestEntry;
+	}
+
+	/**
+	 * Returns the entry with the UID extension and original start (null =
+	 * not a recurrence exception), used or not. Finds the events a lost batch
+	 * response has already inserted.
+	 */
+	final RemoteEntry findByUID(final String uid, final String originalStart) {
+		final LinkedList<IndexedEntry> bucket = byUID.get(uid);
+		if (bucket == null) {
+			return null;
+		}
+		final Iterator<IndexedEntry> entries = bucket.iterator();
+		RemoteEntry entry;
+		while (entries.hasNext()) {
+			entry = entries.next().entry;
+			if (originalStart == null ? entry.originalStart == null
+					: originalStart.equals(entry.originalStart)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	private static final IndexedEntry firstUnused(
+			final LinkedList<IndexedEntry> bucket) {
+		if (bucket == null) {
+			return null;
+		}
+		final Iterator<IndexedEntry> entries = bucket.iterator();
+		IndexedEntry indexed;
+		while (entries.hasNext()) {
+			indexed = entries.next();
+			if (!indexed.used) {
+				return indexed;
+			}
+		}
+		return null;
+	}
+
+	private static final LinkedList<IndexedEntry> getBucket(
+			final HashMap<Object, LinkedList<IndexedEntry>> index,
+			final Object key) {
+		if (key == null) {
+			return null;
+		}
+		return index.get(key);
+	}
+
+	private static final void addCandidates(
+			final TreeMap<Integer, IndexedEntry> candidates,
+			final LinkedList<IndexedEntry> bucket) {
+		if (bucket == null) {
+			return;
+		}
+		final Iterator<IndexedEntry> entries = bucket.iterator();
+		IndexedEntry indexed;
+		while (entries.hasNext()) {
+			indexed = entries.next();
+			if (!indexed.used) {
+				candidates.put(Integer.valueOf(indexed.order), indexed);
+			}
+		}
+	}
+
+	// --- INDEXED ENTRY ---
+
+	private static final class IndexedEntry {
+
+		private final RemoteEntry entry;
+		private final int order;
+
+		private boolean used;
+		private int score;
+
+		private IndexedEntry(final RemoteEntry entry, final int order) {
+			this.entry = entry;
+			this.order = order;
+		}
+
+	}
+
+}
@@ -0,0 +1,293 @@
+//
+// GCALDaemon is an OS-independent Java program that offers two-way
+// synchronization between Google Calendar and various iCalalendar (RFC 2445)
+// compatible calendar applications (Sunbird, Rainlendar, iCal, Lightning, etc).
+//
+// Apache License
+// Version 2.0, January 2004
+// http://www.apache.org/licenses/
+//
+// Project home:
+// http://gcaldaemon.sourceforge.net
+//
+package org.gcaldaemon.core;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.gdata.util.AuthenticationException;
+import com.google.gdata.util.InvalidEntryException;
+import com.google.gdata.util.NotAcceptableException;
+import com.google.gdata.util.ResourceNotFoundException;
+import com.google.gdata.util.ServiceException;
+import com.google.gdata.util.ServiceForbiddenException;
+import com.google.gdata.util.VersionConflictException;
+
+/**
+ * Shared retry policy of the Google calls (used in GCalUtilities). Each
+ * endpoint key (eg. call type and calendar) has its own circuit. Failed
+ * calls are retried with exponential backoff and random jitter, except the
+ * requests Google rejected (4xx, eg. entry not found), which fail fast and
+ * are not counted as failures of the endpoint. After
+ * 'failureThreshold' consecutive failures the endpoint's circuit opens, and
+ * calls fail fast (CircuitOpenException) until 'openMillis' has passed. Then
+ * the circuit is half-open: one call is let through as a probe, the others
+ * still fail fast. A successful probe closes the circuit, a failed one opens
+ * it again. A probe that isn't reported in 'openMillis' is replaced by the
+ * next call.
+ *
+ * <pre>
+ * for (int tries = 0;; tries++) {
+ *     try {
+ *         policy.before(endpoint);
+ *         ... call Google ...
+ *         policy.succeeded(endpoint);
+ *         break;
+ *     } catch (Exception error) {
+ *         if (!policy.retry(endpoint, tries, error)) {
+ *             throw error;
+ *         }
+ *     }
+ * }
+ * </pre>
+ */
+final class RetryPolicy {
+
+	// --- LOGGER ---
+
+	private static final Log log = LogFactory.getLog(RetryPolicy.class);
+
+	// --- PROPERTIES ---
+
+	private final int maxTries;
+	private final long baseMillis;
+	private final long maxMillis;
+	private final int failureThreshold;
+	private final long openMillis;
+
+	private final HashMap<String, Endpoint> endpoints = new HashMap<String, Endpoint>();
+	private final Random random = new Random();
+
+	// --- CONSTRUCTOR ---
+
+	RetryPolicy(final int maxTries, final long baseMillis, final long maxMillis,
+			final int failureThreshold, final long openMillis) {
+		this.maxTries = maxTries;
+		this.baseMillis = baseMillis;
+		this.maxMillis = maxMillis;
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+	}
+
+	// --- CIRCUIT BREAKER ---
+
+	/**
+	 * Counts a new call, or throws CircuitOpenException if the endpoint's
+	 * circuit is open.
+	 */
+	final void before(final String endpoint) throws CircuitOpenException {
+		final Endpoint state = getEndpoint(endpoint);
+		synchronized (state) {
+			final long now = System.currentTimeMillis();
+			if (now < state.openUntil) {
+				state.rejected++;
+				throw new CircuitOpenException(endpoint, state.openUntil - now);
+			}
+
+			// Half-open circuit (only one probe)
+			if (state.consecutiveFailures >= failureThreshold) {
+				if (now < state.probeUntil) {
+					state.rejected++;
+					throw new CircuitOpenException(endpoint, state.probeUntil
+							- now);
+				}
+				state.probeUntil = now + openMillis;
+			}
+			state.calls++;
+		}
+	}
+
+	final void succeeded(final String endpoint) {
+		final Endpoint state = getEndpoint(endpoint);
+		synchronized (state) {
+			if (state.consecutiveFailures >= failureThreshold) {
+				log.info("Google endpoint (" + endpoint + ") is available again "
+						+ state + ".");
+			}
+			state.consecutiveFailures = 0;
+			state.openUntil = 0;
+			state.probeUntil = 0;
+		}
+	}
+
+	/**
+	 * Counts a failed call. Opens the endpoint's circuit after too many
+	 * consecutive failures.
+	 */
+	final void failed(final String endpoint, final Exception error) {
+		if (error instanceof CircuitOpenException) {
+			return;
+		}
+		final Endpoint state = getEndpoint(endpoint);
+		synchronized (state) {
+
+			// Rejected probe, the next call tries again
+			state.probeUntil = 0;
+			if (isClientError(error)) {
+				return;
+			}
+			state.failures++;
+			state.consecutiveFailures++;
+			if (state.consecutiveFailures >= failureThreshold) {
+				state.openUntil = System.currentTimeMillis() + openMillis;
+				if (state.consecutiveFailures == failureThreshold) {
+					state.openings++;
+					log.warn("Google endpoint (" + endpoint
+							+ ") is unavailable, pausing requests for "
+							+ (openMillis / 1000) + " sec " + state + ".");
+				}
+			}
+		}
+	}
+
+	// --- RETRY AND BACKOFF ---
+
+	/**
+	 * Counts the failed call, then waits before the next try. Returns false
+	 * (without waiting) when the call should not be retried: too many tries,
+	 * the endpoint's circuit is open, or Google rejected the request.
+	 */
+	final boolean retry(final String endpoint, final int tries,
+			final Exception error) throws InterruptedException {
+		failed(endpoint, error);
+		if (error instanceof CircuitOpenException || isClientError(error)
+				|| tries + 1 >= maxTries) {
+			return false;
+		}
+		final Endpoint state = getEndpoint(endpoint);
+		synchronized (state) {
+			if (isOpen(state, System.currentTimeMillis())) {
+				return false;
+			}
+			state.retries++;
+		}
+		pause(tries);
+		return true;
+	}
+
+	/**
+	 * Exponential backoff with jitter (50-100% of the delay).
+	 */
+	final void pause(final int tries) throws InterruptedException {
+		long delay = baseMillis << Math.min(tries, 16);
+		if (delay <= 0 || delay > maxMillis) {
+			delay = maxMillis;
+		}
+		synchronized (random) {
+			delay = delay / 2 + (long) (random.nextDouble() * (delay / 2));
+		}
+		Thread.sleep(delay);
+	}
+
+	/**
+	 * Returns true if Google rejected the request itself (4xx: not found,
+	 * forbidden, invalid entry, etc). Expired logins (401) are not included,
+	 * they are retried after reconnecting.
+	 */
+	static final boolean isClientError(final Exception error) {
+		if (!(error instanceof ServiceException)
+				|| error instanceof AuthenticationException) {
+			return false;
+		}
+		if (error instanceof ResourceNotFoundException
+				|| error instanceof ServiceForbiddenException
+				|| error instanceof InvalidEntryException
+				|| error instanceof NotAcceptableException
+				|| error instanceof VersionConflictException) {
+			return true;
+		}
+		final int code = ((ServiceException) error).getHttpErrorCodeOverride();
+		return code >= 400 && code < 500;
+	}
+
+	final boolean isOpen(final String endpoint) {
+		final Endpoint state = getEndpoint(endpoint);
+		synchronized (state) {
+			return isOpen(state, System.currentTimeMillis());
+		}
+	}
+
+	private static final boolean isOpen(final Endpoint state, final long now) {
+		return now < state.openUntil || now < state.probeUntil;
+	}
+
+	private final Endpoint getEndpoint(final String endpoint) {
+		synchronized (endpoints) {
+			Endpoint state = endpoints.get(endpoint);
+			if (state == null) {
+				state = new Endpoint();
+				endpoints.put(endpoint, state);
+			}
+			return state;
+		}
+	}
+
+	public final String toString() {
+		final StringBuffer buffer = new StringBuffer(200);
+		synchronized (endpoints) {
+			final Iterator<String> names = endpoints.keySet().iterator();
+			String name;
+			while (names.hasNext()) {
+				name = names.next();
+				if (buffer.length() != 0) {
+					buffer.append(", ");
+				}
+				buffer.append(name);
+				buffer.append(endpoints.get(name));
+			}
+		}
+		return buffer.toString();
+	}
+
+	// --- ENDPOINT STATE AND COUNTERS ---
+
+	private static final class Endpoint {
+
+		private long calls;
+		private long failures;
+		private long retries;
+		private long rejected;
+		private long openings;
+
+		private int consecutiveFailures;
+		private long openUntil;
+		private long probeUntil;
+
+		public final synchronized String toString() {
+			return "[calls: " + calls + ", failures: " + failures
+					+ ", retries: " + retries + ", rejected: " + rejected
+					+ ", circuit openings: " + openings + ']';
+		}
+
+	}
+
+	// --- CIRCUIT OPEN EXCEPTION ---
+
+	static final class CircuitOpenException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		CircuitOpenException(final String endpoint, final long millis) {
+			super("Google endpoint (" + endpoint
+					+ ") is unavailable, next try in " + (millis / 1000)
+					+ " sec!");
+		}
+
+	}
+
+}
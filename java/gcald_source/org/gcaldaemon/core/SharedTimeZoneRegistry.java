@@ -0,0 +1,59 @@
+//
+// GCALDaemon is an OS-independent Java program that offers two-way
+// synchronization between Google Calendar and various iCalalendar (RFC 2445)
+// compatible calendar applications (Sunbird, Rainlendar, iCal, Lightning, etc).
+//
+// Apache License
+// Version 2.0, January 2004
+// http://www.apache.org/licenses/
+//
+// Project home:
+// http://gcaldaemon.sourceforge.net
+//
+package org.gcaldaemon.core;
+
+import java.util.HashMap;
+
+import net.fortuna.ical4j.model.TimeZone;
+import net.fortuna.ical4j.model.TimeZoneRegistry;
+import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
+
+/**
+ * Time zone registry shared by the per-thread CalendarBuilders of
+ * ICalUtilities. Registered time zones are kept in a copy-on-write map, so
+ * lookups never lock and every builder sees a registration as soon as it is
+ * published. Unknown ids are loaded (once) from ical4j's default registry.
+ */
+final class SharedTimeZoneRegistry implements TimeZoneRegistry {
+
+	// --- REGISTRIES ---
+
+	private final TimeZoneRegistry defaults = TimeZoneRegistryFactory
+			.getInstance().createRegistry();
+
+	private volatile HashMap<String, TimeZone> zones = new HashMap<String, TimeZone>();
+
+	// --- TIME ZONE REGISTRY ---
+
+	public final synchronized void register(final TimeZone timeZone) {
+		final HashMap<String, TimeZone> copy = new HashMap<String, TimeZone>(zones);
+		copy.put(timeZone.getID(), timeZone);
+		zones = copy;
+	}
+
+	public final synchronized void clear() {
+		zones = new HashMap<String, TimeZone>();
+		defaults.clear();
+	}
+
+	public final TimeZone getTimeZone(final String id) {
+		final TimeZone timeZone = zones.get(id);
+		if (timeZone != null) {
+			return timeZone;
+		}
+		synchronized (this) {
+			return defaults.getTimeZone(id);
+		}
+	}
+
+}
@@ -1,10 +1,17 @@
 package org.galbraiths.groupwise.calendar;
 
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-class CalendarEvent {
+class CalendarEvent implements Serializable {
+  private static final long serialVersionUID = 2L;
+
+  private String m_itemId;
   private Date m_eventStart;
   private Date m_eventStop;
   private String m_description;
@@ -15,6 +22,17 @@ class CalendarEvent {
     m_attendees = new ArrayList<String>();
   }
 
+  /**
+   * @return the Groupwise item id this event was read from, or null if unknown.
+   */
+  public String getItemId() {
+    return m_itemId;
+  }
+
+  public void setItemId(final String itemId) {
+    this.m_itemId = itemId;
+  }
+
   public Date getEventStart() {
     return m_eventStart;
   }
@@ -50,4 +68,70 @@ class CalendarEvent {
   public List<String> getAttendees() {
     return m_attendees;
   }
+
+  /**
+   * Stable identity for the ics UID.  Derived from the Groupwise item id, or from start, stop & subject when the
+   * id isn't known, so the same event gets the same UID on every scan.
+   */
+  public String getUid() {
+    final String key;
+    if(m_itemId != null) {
+      key = m_itemId;
+    } else {
+      key = time(m_eventStart) + "|" + time(m_eventStop) + "|" + m_description;
+    }
+    return digest(key) + "@gwgcalsync";
+  }
+
+  private static long time(final Date p_date) {
+    return p_date == null ? 0 : p_date.getTime();
+  }
+
+  private static String digest(final String p_key) {
+    try {
+      final byte[] hash = MessageDigest.getInstance("MD5").digest(p_key.getBytes("UTF-8"));
+      final StringBuilder sb = new StringBuilder(hash.length * 2);
+      for(final byte b : hash) {
+        sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return sb.toString();
+    } catch(final NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    } catch(final UnsupportedEncodingException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  @Override
+  public boolean equals(final Object p_obj) {
+    if(this == p_obj) {
+      return true;
+    }
+    if(!(p_obj instanceof CalendarEvent)) {
+      return false;
+    }
+    final CalendarEvent other = (CalendarEvent) p_obj;
+    return same(m_itemId, other.m_itemId)
+        && same(m_eventStart, other.m_eventStart)
+        && same(m_eventStop, other.m_eventStop)
+        && same(m_description, other.m_description)
+        && same(m_location, other.m_location)
+        && m_attendees.equals(other.m_attendees);
+  }
+
+  private static boolean same(final Object p_a, final Object p_b) {
+    return p_a == null ? p_b == null : p_a.equals(p_b);
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 17;
+    hash = 31 * hash + (m_itemId == null ? 0 : m_itemId.hashCode());
+    hash = 31 * hash + (m_eventStart == null ? 0 : m_eventStart.hashCode());
+    hash = 31 * hash + (m_eventStop == null ? 0 : m_eventStop.hashCode());
+    hash = 31 * hash + (m_description == null ? 0 : m_description.hashCode());
+    hash = 31 * hash + (m_location == null ? 0 : m_location.hashCode());
+    hash = 31 * hash + m_attendees.hashCode();
+    return hash;
+  }
 }
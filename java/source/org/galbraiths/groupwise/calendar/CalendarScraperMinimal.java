@@ -4,53 +4,115 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.galbraiths.groupwise.model.GroupwiseConfig;
+import org.galbraiths.groupwise.util.DaemonThreadFactory;
 import org.galbraiths.groupwise.util.StringUtils;
 import org.htmlparser.Node;
 import org.htmlparser.Parser;
-import org.htmlparser.Text;
-import org.htmlparser.filters.TagNameFilter;
 import org.htmlparser.tags.LinkTag;
-import org.htmlparser.util.NodeIterator;
-import org.htmlparser.util.NodeList;
+import org.htmlparser.tags.TableRow;
 
 /**
- * Note this class is not thread safe due to the way it caches DateFormat instances.
+ * Months are searched on a bounded worker pool (see scrape.parallelism) which shares the one authenticated session.
+ * Item.Read detail pages are fetched concurrently over pooled connections (see groupwise.maxConnections).
+ * The session is kept between scans and only re-established when Groupwise hands back its login page.
+ * getCalendarEvents() itself must not be called concurrently since it may log in again.
  *
  * @author zbedell
  */
 class CalendarScraperMinimal {
   private static Log logger = LogFactory.getLog(CalendarScraperMinimal.class);
+
+  /** Field of the login form, only present when the session is gone. */
+  private static final String LOGIN_MARKER = "User.password";
+  /** Every calendar view links back to other Calendar.* actions. */
+  private static final String CALENDAR_MARKER = "Calendar.";
+  private static final String ITEM_ID_PARAM = "Item.id=";
+
   private final GroupwiseConfig m_config;
 
-  private String m_userContext;
+  private volatile String m_userContext;
   private final HttpClient m_client;
-
-  private final DateFormat m_gwDateFormat = new SimpleDateFormat("MMMM d, yyyy");
-  private final DateFormat m_gwTimeFormat = new SimpleDateFormat("h:mm a");
+  private final ExecutorService m_monthPool;
+  private final ExecutorService m_itemPool;
+  private final ItemDetailCache m_itemCache;
+  private final MonthEventStore m_monthStore;
+
+  // SimpleDateFormat isn't thread safe, so each scraping thread gets its own.
+  private static final ThreadLocal<DateFormat> GW_DATE_FORMAT = new ThreadLocal<DateFormat>() {
+    @Override
+    protected DateFormat initialValue() {
+      return new SimpleDateFormat("MMMM d, yyyy");
+    }
+  };
+  private static final ThreadLocal<DateFormat> GW_TIME_FORMAT = new ThreadLocal<DateFormat>() {
+    @Override
+    protected DateFormat initialValue() {
+      return new SimpleDateFormat("h:mm a");
+    }
+  };
 
   protected CalendarScraperMinimal(final GroupwiseConfig p_config) {
     m_config = p_config;
 
-    m_client = new HttpClient();
+    final int parallelism = Math.max(1, m_config.getScrapeParallelism());
+    final int maxConnections = Math.max(1, m_config.getMaxConnectionsPerHost());
+    final MultiThreadedHttpConnectionManager connections = new MultiThreadedHttpConnectionManager();
+    connections.getParams().setDefaultMaxConnectionsPerHost(maxConnections);
+    connections.getParams().setMaxTotalConnections(maxConnections);
+
+    m_client = new HttpClient(connections);
     m_client.getParams().setParameter("http.protocol.single-cookie-header", true);
 
+    if(parallelism > 1) {
+      m_monthPool = Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory("Groupwise scraper"));
+    } else {
+      m_monthPool = null;
+    }
+
+    // Item pages are fetched on their own pool so month workers waiting on them can't starve it.
+    if(maxConnections > 1) {
+      m_itemPool = Executors.newFixedThreadPool(maxConnections, new DaemonThreadFactory("Groupwise item reader"));
+    } else {
+      m_itemPool = null;
+    }
+
+    if(m_config.getItemCacheMinutes() > 0) {
+      m_itemCache = new ItemDetailCache(m_config.getCalendarCache().getParentFile(), m_config.getItemCacheMinutes());
+    } else {
+      m_itemCache = null;
+    }
+
+    if(m_config.getFullScanMinutes() > 0) {
+      m_monthStore = new MonthEventStore(m_config.getCalendarCache().getParentFile(), m_config.getFullScanMinutes());
+    } else {
+      m_monthStore = null;
+    }
+
     if(StringUtils.notNullOrEmpty(m_config.getProxyHost())) {
       final HostConfiguration conf = m_client.getHostConfiguration();
       conf.setProxy(m_config.getProxyHost(), m_config.getProxyPort());
@@ -69,10 +131,27 @@ class CalendarScraperMinimal {
    * @throws Exception
    */
   protected List<CalendarEvent> getCalendarEvents(final int p_months) throws Exception {
-    final List<CalendarEvent> calendarEvents = new ArrayList<CalendarEvent>();
+    if(m_userContext == null) {
+      login();
+    }
 
+    try {
+      return scanMonths(p_months);
+    } catch(final SessionExpiredException ex) {
+      logger.info("Groupwise session expired, logging in again.");
+      login();
+      return scanMonths(p_months);
+    }
+  }
+
+  private void login() throws Exception {
+    m_userContext = null;
     getUserContext();
     authenticateUser();
+  }
+
+  private List<CalendarEvent> scanMonths(final int p_months) throws Exception {
+    final List<CalendarEvent> calendarEvents = new ArrayList<CalendarEvent>();
 
     final Calendar cal = Calendar.getInstance();
 
@@ -87,18 +166,95 @@ class CalendarScraperMinimal {
     cal.add(Calendar.MONTH, -splitMonths);
 
     // check all this stuff against the calendar javadoc
+    final List<String> monthKeys = new ArrayList<String>(p_months);
+    final Map<String, List<CalendarEvent>> results = new HashMap<String, List<CalendarEvent>>();
+    final Map<String, Future<List<CalendarEvent>>> pending = new HashMap<String, Future<List<CalendarEvent>>>();
+    final Set<String> scanned = new HashSet<String>();
     for(int i = 0; i < p_months; i++) {
       final int year = cal.get(Calendar.YEAR);
       final int month = (cal.get(Calendar.MONTH) + 1); // Calendar is 0-based for some odd reason
-      logger.debug(String.format("Scraping %d/%d...", month, year));
-      final List<CalendarEvent> events = getEventLinks(month, year);
-      calendarEvents.addAll(events);
+      final String key = year + "-" + month;
+      monthKeys.add(key);
       cal.add(Calendar.MONTH, 1);
+
+      // Months near today are always re-read, distant ones only once their stored copy is stale.
+      if(m_monthStore != null && Math.abs(i - splitMonths) > m_config.getNearMonths()) {
+        final List<CalendarEvent> stored = m_monthStore.get(key);
+        if(stored != null) {
+          results.put(key, stored);
+          continue;
+        }
+      }
+
+      scanned.add(key);
+      if(m_monthPool == null) {
+        logger.debug(String.format("Scraping %d/%d...", month, year));
+        results.put(key, getEventLinks(month, year));
+      } else {
+        pending.put(key, m_monthPool.submit(new Callable<List<CalendarEvent>>() {
+          @Override
+          public List<CalendarEvent> call() throws Exception {
+            logger.debug(String.format("Scraping %d/%d...", month, year));
+            return getEventLinks(month, year);
+          }
+        }));
+      }
+    }
+
+    try {
+      for(final Map.Entry<String, Future<List<CalendarEvent>>> entry : pending.entrySet()) {
+        results.put(entry.getKey(), entry.getValue().get());
+      }
+    } catch(final ExecutionException ex) {
+      cancelAll(pending.values());
+      if(ex.getCause() instanceof Exception) {
+        throw (Exception) ex.getCause();
+      }
+      throw ex;
+    } catch(final InterruptedException ex) {
+      cancelAll(pending.values());
+      throw ex;
+    }
+
+    // Merge in month order so the result matches a serial full scan.
+    for(final String key : monthKeys) {
+      calendarEvents.addAll(results.get(key));
+    }
+    if(m_monthStore != null) {
+      logger.debug(String.format("Scraped %d of %d months.", scanned.size(), p_months));
+      for(final String key : scanned) {
+        m_monthStore.put(key, results.get(key));
+      }
+      m_monthStore.retain(monthKeys);
+      m_monthStore.save();
+    }
+
+    if(m_itemCache != null) {
+      m_itemCache.save();
     }
 
     return calendarEvents;
   }
 
+  private static void cancelAll(final Collection<? extends Future<?>> p_pending) {
+    for(final Future<?> future : p_pending) {
+      future.cancel(true);
+    }
+  }
+
+  /**
+   * Pulls the Item.id parameter out of an Item.Read link.  The rest of the link carries the per-session
+   * User.context, so it can't be used as a key.  Links without an id fall back to the link minus its context.
+   */
+  static String getItemId(final String p_href) {
+    final int start = p_href.indexOf(ITEM_ID_PARAM);
+    if(start != -1) {
+      final int end = p_href.indexOf('&', start);
+      return p_href.substring(start + ITEM_ID_PARAM.length(), end == -1 ? p_href.length() : end);
+    }
+    return p_href.replaceAll("User\\.context=[^&]*&?", "");
+  }
+
   private static void processInvalidResponse(final int p_response, final HttpMethod p_request) throws Exception {
     final String errorMessage = "An invalid response code was returned: " + p_response;
     logger.error(errorMessage);
@@ -106,56 +262,58 @@ class CalendarScraperMinimal {
     throw new Exception(errorMessage);
   }
 
-  private static String getInputValue(final String p_page, final String p_inputName) {
-    int location = 0;
-    final String tempPage = p_page.toLowerCase();
-    while((location = (tempPage.indexOf("input", location))) != -1) {
-      location++;
-      final String name = getAttributeValue(p_page, location, "name");
-      if(name == null) {
-        continue;
-      }
+  /**
+   * Thrown when Groupwise answers with a redirect or its login page instead of the requested page.
+   */
+  private static class SessionExpiredException extends Exception {
+    private static final long serialVersionUID = 1L;
 
-      if(name.equals(p_inputName)) {
-        final String value = getAttributeValue(p_page, location, "value");
-        return value;
-      }
+    SessionExpiredException(final String p_message) {
+      super(p_message);
     }
-    return null;
   }
 
-  private static String getAttributeValue(final String p_page, final int p_inputStart, final String p_attributeName) {
-    final String tempPage = p_page.toLowerCase();
-
-    final int value = tempPage.indexOf(p_attributeName + "=", p_inputStart);
-    if(value == -1) {
-      return null;
-    }
-
-    final int valueQuote = value + (p_attributeName + "=").length();
-    final char c = tempPage.charAt(valueQuote);
-    if((c != '\'') && (c != '"')) {
-      return null;
-    }
+  /**
+   * Executes a GET against the current session and returns the page.
+   *
+   * @param p_marker text the page must contain, or null.  A page without it is treated as an expired session.
+   * @throws SessionExpiredException if the session is no longer valid
+   */
+  private String fetchPage(final GetMethod p_get, final String p_marker) throws Exception {
+    try {
+      final int response = m_client.executeMethod(p_get);
+      if(response == 301 || response == 302 || response == 303) {
+        throw new SessionExpiredException("Redirected to " + p_get.getResponseHeader("Location"));
+      }
+      if(response != 200) {
+        processInvalidResponse(response, p_get);
+      }
 
-    final int finalQuote = tempPage.indexOf(String.valueOf(c), valueQuote + 1);
-    if(finalQuote == -1) {
-      return null;
+      final String body = p_get.getResponseBodyAsString();
+      if(body.indexOf(LOGIN_MARKER) != -1 || (p_marker != null && body.indexOf(p_marker) == -1)) {
+        throw new SessionExpiredException("Groupwise returned the login page");
+      }
+      return body;
+    } finally {
+      p_get.releaseConnection();
     }
-
-    return p_page.substring(valueQuote + 1, finalQuote);
   }
 
   private void getUserContext() throws Exception {
     // get the sign-in web page. This is required to obtain some sort of unique session identifier, called the
     // "User.context"
     final GetMethod get = new GetMethod(m_config.getUrl() + "/gw/webacc?User.interface=simple");
-    final int response = m_client.executeMethod(get);
-    if(response != 200) {
-      processInvalidResponse(response, get);
+    final String responseBody;
+    try {
+      final int response = m_client.executeMethod(get);
+      if(response != 200) {
+        processInvalidResponse(response, get);
+      }
+      responseBody = get.getResponseBodyAsString();
+    } finally {
+      get.releaseConnection();
     }
-    final String responseBody = get.getResponseBodyAsString();
-    m_userContext = getInputValue(responseBody, "User.context");
+    m_userContext = FormFieldExtractor.extract(responseBody).get("User.context");
     if(StringUtils.nullOrEmpty(m_userContext)) {
       throw new Exception("No User.context value found");
     }
@@ -175,150 +333,187 @@ class CalendarScraperMinimal {
     };
     post.setRequestBody(pairs);
 
-    final int response = m_client.executeMethod(post);
-    if(response != 200) {
-      processInvalidResponse(response, post);
+    try {
+      final int response = m_client.executeMethod(post);
+      if(response != 200) {
+        processInvalidResponse(response, post);
+      }
+    } finally {
+      post.releaseConnection();
     }
 
 //    @SuppressWarnings("unused")
 //    final String responseBody = post.getResponseBodyAsString();
   }
 
-  @SuppressWarnings("deprecation")
   private List<CalendarEvent> getEventLinks(final int month, final int year) throws Exception {
     final Calendar calendar = Calendar.getInstance();
     calendar.set(year, month - 1, 1);
     calendar.add(Calendar.DAY_OF_YEAR, -1);
     final Date date = calendar.getTime();
     final long time = date.getTime();
-    GetMethod get = new GetMethod(m_config.getUrl() + "/gw/webacc?User.context=" + m_userContext
+    final GetMethod search = new GetMethod(m_config.getUrl() + "/gw/webacc?User.context=" + m_userContext
         + "&action=Calendar.Search&Calendar.startDate=" + time + "&Calendar.durationType=Month&merge=calendar");
 
-    int response = m_client.executeMethod(get);
-    if(response != 200) {
-      processInvalidResponse(response, get);
-    }
+    final String responseBody = fetchPage(search, CALENDAR_MARKER);
 
-    final String responseBody = get.getResponseBodyAsString();
     final Node[] links = Parser.createParser(responseBody, null).extractAllNodesThatAre(LinkTag.class);
-    final List<CalendarEvent> events = new ArrayList<CalendarEvent>(links.length);
-    final Set<String> eventURLs = new HashSet<String>(links.length);
+    // Item.Read link -> the text it is listed with, in listing order.
+    final Map<String, String> eventURLs = new LinkedHashMap<String, String>(links.length);
     for(final Node link2 : links) {
       final LinkTag link = (LinkTag) link2;
       final String href = link.getAttribute("href");
-      if(href.indexOf("Item.Read") != -1) {
-        final String url = link.getLink();
-        if(eventURLs.contains(url)) {
-          continue;
-        }
-        eventURLs.add(url);
-        get = new GetMethod(m_config.getUrl() + url);
-        response = m_client.executeMethod(get);
-        if(response != 200) {
-          processInvalidResponse(response, get);
-        }
-
-        String mode = null;
-        final Map<String,String> values = new HashMap<String,String>();
+      if(href.indexOf("Item.Read") != -1 && !eventURLs.containsKey(link.getLink())) {
+        eventURLs.put(link.getLink(), getListingText(link));
+      }
+    }
 
-        final Parser parser = Parser.createParser(get.getResponseBodyAsString(), null);
-        final NodeIterator cells = parser.extractAllNodesThatMatch(new TagNameFilter("td")).elements();
-        while(cells.hasMoreNodes()) {
-          final Node cell = cells.nextNode();
-          final NodeList list = cell.getChildren();
-          if(list == null) {
-            continue;
-          }
+    if(m_itemCache != null) {
+      final Set<String> itemIds = new HashSet<String>(eventURLs.size());
+      for(final String url : eventURLs.keySet()) {
+        itemIds.add(getItemId(url));
+      }
+      m_itemCache.updateMonth(year + "-" + month, itemIds);
+    }
 
-          final NodeIterator it = list.elements();
-          while(it.hasMoreNodes()) {
-            final Node child = it.nextNode();
-            if(child instanceof Text) {
-              final String text = convertTextToString((Text) child);
-              if(text.equals("Subject:")) {
-                mode = text;
-                continue;
-              } else if(text.equals("Date:")) {
-                mode = text;
-                continue;
-              } else if(text.equals("Time:")) {
-                mode = text;
-                continue;
-              } else if(text.equals("To:")) {
-                mode = text;
-                continue;
-              } else if(text.equals("Location:")) {
-                mode = text;
-                continue;
-              }
-
-              if(text.equals("")) {
-                continue;
-              }
-
-              if(mode != null) {
-                values.put(mode, text);
-                mode = null;
-              }
-            }
-          }
+    final List<CalendarEvent> events = new ArrayList<CalendarEvent>(eventURLs.size());
+    if(m_itemPool == null) {
+      for(final Map.Entry<String, String> url : eventURLs.entrySet()) {
+        final CalendarEvent event = getEvent(url.getKey(), url.getValue());
+        if(event != null) {
+          events.add(event);
         }
+      }
+      return events;
+    }
 
-        // build the calendar event and add it to the list
-        final CalendarEvent event = new CalendarEvent();
-        event.setLocation(values.get("Location:"));
-        event.setDescription(values.get("Subject:"));
-
-        Date eventDate = null;
-        try {
-          final String[] gwDate = values.get("Date:").split(" - ");
-          eventDate = m_gwDateFormat.parse(gwDate[1]);
-        } catch(final Exception e) {
-          logger.error("Couldn't parse Date field", e);
-          logger.error(printFields(values));
-          continue;
+    // Fetch the detail pages concurrently, but keep the order they were listed in.
+    final List<Future<CalendarEvent>> pending = new ArrayList<Future<CalendarEvent>>(eventURLs.size());
+    for(final Map.Entry<String, String> url : eventURLs.entrySet()) {
+      pending.add(m_itemPool.submit(new Callable<CalendarEvent>() {
+        @Override
+        public CalendarEvent call() throws Exception {
+          return getEvent(url.getKey(), url.getValue());
         }
-        Date startTime = null;
-        Date endTime = null;
-        try {
-          final String sT = values.get("Time:");
-          if(sT == null) {
-            startTime = new Date(0, 0, 0, 0, 0, 0);
-            endTime = new Date(0,0,0,23,59,59);
-          } else {
-            final String[] times = sT.split(" - ");
-            startTime = m_gwTimeFormat.parse(times[0]);
-            endTime = m_gwTimeFormat.parse(times[1]);
-          }
-        } catch(final Exception e) {
-          logger.error("Couldn't parse Time field", e);
-          logger.error(printFields(values));
-          continue;
+      }));
+    }
+    try {
+      for(final Future<CalendarEvent> future : pending) {
+        final CalendarEvent event = future.get();
+        if(event != null) {
+          events.add(event);
         }
+      }
+    } catch(final ExecutionException ex) {
+      cancelAll(pending);
+      if(ex.getCause() instanceof Exception) {
+        throw (Exception) ex.getCause();
+      }
+      throw ex;
+    } catch(final InterruptedException ex) {
+      cancelAll(pending);
+      throw ex;
+    }
 
-        final Date eventStart = new Date(eventDate.getTime());
-        final Date eventStop = new Date(eventDate.getTime());
-        eventStart.setHours(startTime.getHours());
-        eventStart.setMinutes(startTime.getMinutes());
-        eventStop.setHours(endTime.getHours());
-        eventStop.setMinutes(endTime.getMinutes());
-
-        event.setEventStart(eventStart);
-        event.setEventStop(eventStop);
-
-        final String to = values.get("To:");
-        if(to != null) {
-          final String[] attendees = to.split(", ");
-          for(final String attendee : attendees) {
-            event.getAttendees().add(attendee);
-          }
-        }
+    return events;
+  }
 
-        events.add(event);
+  /**
+   * The month listing shows each event's time and subject in the row of its link.  Used to notice events that
+   * were rescheduled or renamed while their detail page is still cached.
+   */
+  private static String getListingText(final LinkTag p_link) {
+    Node row = p_link.getParent();
+    while(row != null && !(row instanceof TableRow)) {
+      row = row.getParent();
+    }
+    final String text = row == null ? p_link.getLinkText() : row.toPlainTextString();
+    return text == null ? null : text.replaceAll("\\s+", " ").trim();
+  }
+
+  /**
+   * Returns the cached event for an Item.Read link, reading the detail page if it isn't cached or its listing
+   * changed.
+   */
+  private CalendarEvent getEvent(final String p_url, final String p_listing) throws Exception {
+    if(m_itemCache == null) {
+      return readEvent(p_url);
+    }
+
+    final String itemId = getItemId(p_url);
+    CalendarEvent event = m_itemCache.get(itemId, p_listing);
+    if(event == null) {
+      event = readEvent(p_url);
+      if(event != null) {
+        m_itemCache.put(itemId, p_listing, event);
       }
     }
+    return event;
+  }
 
-    return events;
+  /**
+   * Fetches and parses a single Item.Read detail page.
+   *
+   * @return the event, or null if its date or time couldn't be parsed.
+   */
+  @SuppressWarnings("deprecation")
+  private CalendarEvent readEvent(final String p_url) throws Exception {
+    final String itemBody = fetchPage(new GetMethod(m_config.getUrl() + p_url), null);
+
+    final Map<String,String> values = DetailPageExtractor.extract(itemBody);
+
+    // build the calendar event
+    final CalendarEvent event = new CalendarEvent();
+    event.setItemId(getItemId(p_url));
+    event.setLocation(values.get("Location:"));
+    event.setDescription(values.get("Subject:"));
+
+    Date eventDate = null;
+    try {
+      final String[] gwDate = values.get("Date:").split(" - ");
+      eventDate = GW_DATE_FORMAT.get().parse(gwDate[1]);
+    } catch(final Exception e) {
+      logger.error("Couldn't parse Date field", e);
+      logger.error(printFields(values));
+      return null;
+    }
+    Date startTime = null;
+    Date endTime = null;
+    try {
+      final String sT = values.get("Time:");
+      if(sT == null) {
+        startTime = new Date(0, 0, 0, 0, 0, 0);
+        endTime = new Date(0,0,0,23,59,59);
+      } else {
+        final String[] times = sT.split(" - ");
+        startTime = GW_TIME_FORMAT.get().parse(times[0]);
+        endTime = GW_TIME_FORMAT.get().parse(times[1]);
+      }
+    } catch(final Exception e) {
+      logger.error("Couldn't parse Time field", e);
+      logger.error(printFields(values));
+      return null;
+    }
+
+    final Date eventStart = new Date(eventDate.getTime());
+    final Date eventStop = new Date(eventDate.getTime());
+    eventStart.setHours(startTime.getHours());
+    eventStart.setMinutes(startTime.getMinutes());
+    eventStop.setHours(endTime.getHours());
+    eventStop.setMinutes(endTime.getMinutes());
+
+    event.setEventStart(eventStart);
+    event.setEventStop(eventStop);
+
+    final String to = values.get("To:");
+    if(to != null) {
+      final String[] attendees = to.split(", ");
+      for(final String attendee : attendees) {
+        event.getAttendees().add(attendee);
+      }
+    }
+
+    return event;
   }
 
   private String printFields(final Map<String, String> p_values) {
@@ -335,10 +530,4 @@ class CalendarScraperMinimal {
     }
     return sb.toString();
   }
-
-  private String convertTextToString(final Text child) {
-    String text = child.getText();
-    text = text.replaceAll("\\&nbsp\\;", " ");
-    return text.trim();
-  }
 }
@@ -0,0 +1,107 @@
+package org.galbraiths.groupwise.calendar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.zip.GZIPOutputStream;
+
+import org.galbraiths.groupwise.util.Closer;
+
+/**
+ * Immutable, UTF-8 encoded copy of the published calendar, so it can be served without locking or reading the cache file.
+ * A gzip variant is compressed once per calendar version, and the events are indexed for time range queries.
+ */
+public final class CalendarSnapshot {
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final byte[] m_bytes;
+  private final byte[] m_gzipBytes;
+  private final String m_digest;
+  private final long m_lastModified;
+  private final EventIntervalIndex m_index;
+
+  private CalendarSnapshot(final byte[] p_bytes, final byte[] p_gzipBytes, final String p_digest, final long p_lastModified,
+      final EventIntervalIndex p_index) {
+    m_bytes = p_bytes;
+    m_gzipBytes = p_gzipBytes;
+    m_digest = p_digest;
+    m_lastModified = p_lastModified;
+    m_index = p_index;
+  }
+
+  static CalendarSnapshot create(final CharSequence p_cal, final long p_lastModified,
+      final Collection<CalendarEvent> p_events) {
+    try {
+      final byte[] bytes = p_cal.toString().getBytes("UTF8");
+      return new CalendarSnapshot(bytes, gzip(bytes), digest(bytes), p_lastModified, new EventIntervalIndex(p_events));
+    } catch(final UnsupportedEncodingException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private static byte[] gzip(final byte[] p_bytes) {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream(p_bytes.length / 4 + 64);
+    GZIPOutputStream out = null;
+    try {
+      out = new GZIPOutputStream(buffer);
+      out.write(p_bytes);
+      out.finish();
+      return buffer.toByteArray();
+    } catch(final IOException ex) {
+      // Can't happen writing to memory.
+      throw new IllegalStateException(ex);
+    } finally {
+      Closer.close(out);
+    }
+  }
+
+  private static String digest(final byte[] p_bytes) {
+    try {
+      final byte[] hash = MessageDigest.getInstance("SHA-1").digest(p_bytes);
+      final char[] chars = new char[hash.length * 2];
+      for(int i = 0; i < hash.length; i++) {
+        chars[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+        chars[i * 2 + 1] = HEX[hash[i] & 0xf];
+      }
+      return new String(chars);
+    } catch(final NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  public int getLength() {
+    return m_bytes.length;
+  }
+
+  public void writeTo(final OutputStream p_out) throws IOException {
+    p_out.write(m_bytes);
+  }
+
+  public int getGzipLength() {
+    return m_gzipBytes.length;
+  }
+
+  public void writeGzipTo(final OutputStream p_out) throws IOException {
+    p_out.write(m_gzipBytes);
+  }
+
+  /**
+   * Renders only the events overlapping [from, to), so the cost depends on the number of matches.
+   */
+  public CharSequence getVcalendar(final long p_from, final long p_to) {
+    return VcalendarExporter.getVcalendar(m_index.query(p_from, p_to));
+  }
+
+  /** @return hex SHA-1 of the encoded calendar. */
+  public String getDigest() {
+    return m_digest;
+  }
+
+  public long getLastModified() {
+    return m_lastModified;
+  }
+}
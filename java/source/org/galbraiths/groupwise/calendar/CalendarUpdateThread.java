@@ -1,23 +1,29 @@
 package org.galbraiths.groupwise.calendar;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Date;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.galbraiths.groupwise.model.GroupwiseConfig;
 import org.galbraiths.groupwise.util.Closer;
 import org.galbraiths.groupwise.util.Sleep;
-import org.galbraiths.groupwise.util.StringUtils;
 
 /**
  * Thread to periodically scrape Groupwise, write the ics to a file, and (if configured) push contents to Google.
@@ -27,50 +33,50 @@ import org.galbraiths.groupwise.util.StringUtils;
 public class CalendarUpdateThread extends Thread {
   private static Log logger = LogFactory.getLog(CalendarUpdateThread.class);
   private static final String ERR = "Waiting for calendar refresh...";
-
-  private Date m_lastModified = new Date();
+  private static final String PUBLISHED_FILE = "events.cache";
+  private static final String EXPORTED_FILE = "exported.cache";
 
   private final GroupwiseConfig m_config;
-  private final Lock m_lock = new ReentrantLock();
   private final CalendarScraperMinimal m_scraper;
   private final GmailPublisher m_gmailPub;
 
   private boolean m_firstTime = true;
 
+  /** Published to the HTTP server threads when a scan finishes. */
+  private volatile CalendarSnapshot m_snapshot;
+
+  /** Events of the last calendar written & pushed, keyed by UID. */
+  private Map<String, CalendarEvent> m_published;
+
   public CalendarUpdateThread(final GroupwiseConfig p_cfg) throws IOException {
     super("Calendar refresh thread");
     m_config = p_cfg;
     m_scraper = new CalendarScraperMinimal(m_config);
+    m_published = loadEvents(PUBLISHED_FILE);
+
+    final File cache = m_config.getCalendarCache();
+    if(cache.exists() && getEventsFile(EXPORTED_FILE).exists()) {
+      // Serve the last written calendar until the first scrape completes.  The published events differ from the
+      // written ones after a failed push, so the calendar & the range index are rebuilt from the exported events.
+      final Map<String, CalendarEvent> exported = loadEvents(EXPORTED_FILE);
+      final CharSequence cal = VcalendarExporter.getVcalendar(new ArrayList<CalendarEvent>(exported.values()));
+      m_snapshot = CalendarSnapshot.create(cal, cache.lastModified(), exported.values());
+    }
 
     if(p_cfg.isGmailEnabled()) {
       m_gmailPub = new GmailPublisher(m_config.getGmailUsername(), m_config.getGmailPassword(), m_config.getGmailCalendarName(),
-          m_config.getGmailProxyHost(), m_config.getGmailProxyPort());
+          m_config.getGmailProxyHost(), m_config.getGmailProxyPort(), m_config.getGmailBatchSize());
     } else {
       m_gmailPub = null;
     }
 
   }
 
-  public CharSequence getVCal() throws TimeoutException {
-    boolean locked = false;
-    try {
-      if(m_lock.tryLock(10, TimeUnit.SECONDS)) {
-        locked = true;
-        final CharSequence sCal = getCalendar();
-        if(StringUtils.nullOrEmpty(sCal)) {
-          throw new TimeoutException(ERR);
-        }
-        return sCal;
-      } else {
-        throw new TimeoutException(ERR);
-      }
-    } catch(final InterruptedException ex) {
-      throw new TimeoutException(ERR);
-    } finally {
-      if(locked) {
-        m_lock.unlock();
-      }
-    }
+  /**
+   * @return the last published calendar, or null if the first scrape hasn't finished yet.
+   */
+  public CalendarSnapshot getSnapshot() {
+    return m_snapshot;
   }
 
   public CharSequence getCalendar() {
@@ -115,10 +121,6 @@ public class CalendarUpdateThread extends Thread {
     }
   }
 
-  public Date getLastModified() {
-    return m_lastModified;
-  }
-
   @Override
   public void run() {
     for(;;) {
@@ -128,31 +130,88 @@ public class CalendarUpdateThread extends Thread {
   }
 
   public void scanOnce() {
-    boolean locked = false;
     try {
-      final CharSequence cal = VcalendarExporter.getVcalendar(m_scraper.getCalendarEvents(m_config.getRetrieveMonths()));
-      if(!getCalendar().equals(cal)) {
-        m_lock.lock();
-        locked = true;
+      final List<CalendarEvent> events = m_scraper.getCalendarEvents(m_config.getRetrieveMonths());
+      final Map<String, CalendarEvent> current = EventDiff.index(events);
+      final EventDiff diff = EventDiff.compare(m_published, current);
+
+      if(!diff.isEmpty() || !m_config.getCalendarCache().exists()) {
+        logger.info("Groupwise changes: " + diff);
+        // Adjacent month searches overlap by a day, export each UID once (same set the range index is built from).
+        final CharSequence cal = VcalendarExporter.getVcalendar(new ArrayList<CalendarEvent>(current.values()));
         setCalendar(cal);
-        m_lastModified = new Date();
+        saveEvents(EXPORTED_FILE, current);
+        m_snapshot = CalendarSnapshot.create(cal, System.currentTimeMillis(), current.values());
 
-        if(m_firstTime) {
-          // First time...
-          m_firstTime = false;
-          logger.info("Initial scrape completed.  Calendar data now available.");
+        Set<String> rejected = Collections.emptySet();
+        if(m_gmailPub != null) {
+          rejected = m_gmailPub.push(m_config.getCalendarCache(), diff);
         }
 
-        if(m_gmailPub != null) {
-          m_gmailPub.push(m_config.getCalendarCache());
+        // Only remember what was actually published, so a failed push is retried next cycle.
+        final Map<String, CalendarEvent> published = new HashMap<String, CalendarEvent>(current);
+        for(final String uid : rejected) {
+          // Keep the rejected events in the next diff.
+          final CalendarEvent previous = m_published.get(uid);
+          if(previous == null) {
+            published.remove(uid);
+          } else {
+            published.put(uid, previous);
+          }
         }
+        m_published = published;
+        saveEvents(PUBLISHED_FILE, m_published);
+      }
+
+      if(m_firstTime) {
+        // First time...
+        m_firstTime = false;
+        logger.info("Initial scrape completed.  Calendar data now available.");
       }
     } catch(final Exception e) {
       e.printStackTrace();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, CalendarEvent> loadEvents(final String p_name) {
+    final File file = getEventsFile(p_name);
+    if(!file.exists()) {
+      return new HashMap<String, CalendarEvent>();
+    }
+    ObjectInputStream in = null;
+    try {
+      in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+      return (Map<String, CalendarEvent>) in.readObject();
+    } catch(final Exception ex) {
+      logger.warn("Couldn't read " + p_name + ", treating all events as new.", ex);
+      return new HashMap<String, CalendarEvent>();
     } finally {
-      if(locked) {
-        m_lock.unlock();
+      Closer.close(in);
+    }
+  }
+
+  private void saveEvents(final String p_name, final Map<String, CalendarEvent> p_events) {
+    final File file = getEventsFile(p_name);
+    ObjectOutputStream out = null;
+    try {
+      final File tmp = new File(file.getParentFile(), p_name + ".tmp");
+      out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      out.writeObject(new HashMap<String, CalendarEvent>(p_events));
+      Closer.close(out);
+
+      if(!tmp.renameTo(file)) {
+        file.delete();
+        tmp.renameTo(file);
       }
+    } catch(final IOException ex) {
+      logger.warn("Couldn't write " + p_name + ".", ex);
+    } finally {
+      Closer.close(out);
     }
   }
+
+  private File getEventsFile(final String p_name) {
+    return new File(m_config.getCalendarCache().getParentFile(), p_name);
+  }
 }
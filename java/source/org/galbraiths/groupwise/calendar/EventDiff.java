@@ -0,0 +1,74 @@
+package org.galbraiths.groupwise.calendar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Event-level changes between two scans, keyed by {@link CalendarEvent#getUid()}.
+ */
+class EventDiff {
+  private final List<CalendarEvent> m_added = new ArrayList<CalendarEvent>();
+  private final List<CalendarEvent> m_removed = new ArrayList<CalendarEvent>();
+  private final List<CalendarEvent> m_modified = new ArrayList<CalendarEvent>();
+
+  private EventDiff() {
+  }
+
+  /**
+   * Keys events by UID in scan order.  An event listed in more than one month is only kept once.
+   */
+  static Map<String, CalendarEvent> index(final List<CalendarEvent> p_events) {
+    final Map<String, CalendarEvent> byUid = new LinkedHashMap<String, CalendarEvent>(p_events.size() * 2);
+    for(final CalendarEvent event : p_events) {
+      final String uid = event.getUid();
+      if(!byUid.containsKey(uid)) {
+        byUid.put(uid, event);
+      }
+    }
+    return byUid;
+  }
+
+  static EventDiff compare(final Map<String, CalendarEvent> p_previous, final Map<String, CalendarEvent> p_current) {
+    final EventDiff diff = new EventDiff();
+    for(final Map.Entry<String, CalendarEvent> entry : p_current.entrySet()) {
+      final CalendarEvent old = p_previous.get(entry.getKey());
+      if(old == null) {
+        diff.m_added.add(entry.getValue());
+      } else if(!old.equals(entry.getValue())) {
+        diff.m_modified.add(entry.getValue());
+      }
+    }
+    for(final Map.Entry<String, CalendarEvent> entry : p_previous.entrySet()) {
+      if(!p_current.containsKey(entry.getKey())) {
+        diff.m_removed.add(entry.getValue());
+      }
+    }
+    return diff;
+  }
+
+  boolean isEmpty() {
+    return m_added.isEmpty() && m_removed.isEmpty() && m_modified.isEmpty();
+  }
+
+  List<CalendarEvent> getAdded() {
+    return Collections.unmodifiableList(m_added);
+  }
+
+  /** @return the previously published version of each removed event. */
+  List<CalendarEvent> getRemoved() {
+    return Collections.unmodifiableList(m_removed);
+  }
+
+  /** @return the new version of each modified event. */
+  List<CalendarEvent> getModified() {
+    return Collections.unmodifiableList(m_modified);
+  }
+
+  @Override
+  public String toString() {
+    return m_added.size() + " added, " + m_modified.size() + " modified, " + m_removed.size() + " removed";
+  }
+}
@@ -0,0 +1,93 @@
+package org.galbraiths.groupwise.calendar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable interval index over the published events, for time range queries.  Events are sorted by start and
+ * viewed as an implicit balanced binary tree (the middle element of each range is its root), where every node
+ * knows the latest stop of its subtree.  A query only descends into subtrees that can overlap the range, so it
+ * costs O(log n + matches) instead of a scan of the whole window.
+ */
+final class EventIntervalIndex {
+  private final CalendarEvent[] m_events;
+  private final long[] m_starts;
+  private final long[] m_stops;
+
+  /** Latest stop within the subtree rooted at each index. */
+  private final long[] m_maxStops;
+
+  EventIntervalIndex(final Collection<CalendarEvent> p_events) {
+    final List<CalendarEvent> events = new ArrayList<CalendarEvent>(p_events.size());
+    for(final CalendarEvent event : p_events) {
+      // Events without a start can't be exported anyway.
+      if(event.getEventStart() != null) {
+        events.add(event);
+      }
+    }
+    m_events = events.toArray(new CalendarEvent[events.size()]);
+    Arrays.sort(m_events, new Comparator<CalendarEvent>() {
+      @Override
+      public int compare(final CalendarEvent p_a, final CalendarEvent p_b) {
+        return p_a.getEventStart().compareTo(p_b.getEventStart());
+      }
+    });
+
+    m_starts = new long[m_events.length];
+    m_stops = new long[m_events.length];
+    m_maxStops = new long[m_events.length];
+    for(int i = 0; i < m_events.length; i++) {
+      m_starts[i] = m_events[i].getEventStart().getTime();
+      final long stop = m_events[i].getEventStop() == null ? m_starts[i] : m_events[i].getEventStop().getTime();
+      m_stops[i] = Math.max(stop, m_starts[i]);
+    }
+    buildMaxStops(0, m_events.length);
+  }
+
+  private long buildMaxStops(final int p_lo, final int p_hi) {
+    if(p_lo >= p_hi) {
+      return Long.MIN_VALUE;
+    }
+    final int mid = (p_lo + p_hi) >>> 1;
+    final long left = buildMaxStops(p_lo, mid);
+    final long right = buildMaxStops(mid + 1, p_hi);
+    m_maxStops[mid] = Math.max(m_stops[mid], Math.max(left, right));
+    return m_maxStops[mid];
+  }
+
+  /**
+   * @return the events overlapping [from, to), in start order.  A zero length event matches if it starts in the range.
+   */
+  List<CalendarEvent> query(final long p_from, final long p_to) {
+    final List<CalendarEvent> result = new ArrayList<CalendarEvent>();
+    query(0, m_events.length, p_from, p_to, result);
+    return result;
+  }
+
+  private void query(final int p_lo, final int p_hi, final long p_from, final long p_to, final List<CalendarEvent> p_result) {
+    if(p_lo >= p_hi) {
+      return;
+    }
+    final int mid = (p_lo + p_hi) >>> 1;
+    if(m_maxStops[mid] < p_from) {
+      // Everything below ends before the range.
+      return;
+    }
+    query(p_lo, mid, p_from, p_to, p_result);
+    if(m_starts[mid] >= p_to) {
+      // This and everything to the right starts after the range.
+      return;
+    }
+    if(m_stops[mid] > p_from || m_starts[mid] >= p_from) {
+      p_result.add(m_events[mid]);
+    }
+    query(mid + 1, p_hi, p_from, p_to, p_result);
+  }
+
+  int size() {
+    return m_events.length;
+  }
+}
@@ -0,0 +1,52 @@
+package org.galbraiths.groupwise.calendar;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.htmlparser.Node;
+import org.htmlparser.Tag;
+import org.htmlparser.lexer.Lexer;
+import org.htmlparser.util.ParserException;
+
+/**
+ * Collects every &lt;input name=... value=...&gt; pair of a page in one pass over the lexer's token stream.
+ * Used to pick hidden session fields such as User.context out of Groupwise forms.
+ */
+final class FormFieldExtractor {
+
+  private FormFieldExtractor() {
+  }
+
+  /**
+   * @return input names mapped to their values.  When a name repeats, the first one on the page wins.
+   *         Inputs without a value attribute map to null.
+   */
+  static Map<String, String> extract(final String p_page) throws ParserException {
+    final Map<String, String> fields = new HashMap<String, String>();
+    final Lexer lexer = new Lexer(p_page);
+
+    Node node;
+    while((node = lexer.nextNode()) != null) {
+      if(!(node instanceof Tag)) {
+        continue;
+      }
+
+      final Tag tag = (Tag) node;
+      if(tag.isEndTag()) {
+        continue;
+      }
+
+      final String tagName = tag.getTagName();
+      if("SCRIPT".equals(tagName) || "STYLE".equals(tagName)) {
+        lexer.parseCDATA();
+      } else if("INPUT".equals(tagName)) {
+        final String name = tag.getAttribute("name");
+        if(name != null && !fields.containsKey(name)) {
+          fields.put(name, tag.getAttribute("value"));
+        }
+      }
+    }
+
+    return fields;
+  }
+}
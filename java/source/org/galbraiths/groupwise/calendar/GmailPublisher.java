@@ -2,7 +2,10 @@ package org.galbraiths.groupwise.calendar;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -27,7 +30,8 @@ class GmailPublisher {
   private final RemoteCalendar m_cal;
   private final SyncEngine m_engine;
 
-  public GmailPublisher(final String p_username, final String p_password, final String p_calName, final String p_proxyHost, final int p_proxyPort) throws IOException {
+  public GmailPublisher(final String p_username, final String p_password, final String p_calName, final String p_proxyHost, final int p_proxyPort,
+      final int p_batchSize) throws IOException {
     m_username = p_username;
     m_password = p_password;
     m_calName = p_calName;
@@ -38,6 +42,7 @@ class GmailPublisher {
       m_engine.setConfigProperty(Configurator.PROXY_HOST, p_proxyHost);
       m_engine.setConfigProperty(Configurator.PROXY_PORT, Integer.toString(p_proxyPort));
     }
+    m_engine.setConfigProperty(Configurator.BATCH_SIZE, Integer.toString(p_batchSize));
 
     RemoteCalendar theOne = null;
     try {
@@ -59,12 +64,36 @@ class GmailPublisher {
   }
 
 
-  /** Push the ICS file to gmail.
+  /** Push the changed events of the ICS file to gmail, in batches.
+   * @param p_diff the event changes since the last push.
+   * @return the UIDs of the events gmail rejected, these aren't published.
    * @throws IOException */
-  public void push(final File p_ical) throws IOException {
+  public Set<String> push(final File p_ical, final EventDiff p_diff) throws IOException {
+    if(p_diff.isEmpty() && p_ical.exists()) {
+      logger.debug("No event changes, skipping push to gmail.");
+      return Collections.emptySet();
+    }
+    final Set<String> changed = new HashSet<String>();
+    for(final CalendarEvent event : p_diff.getAdded()) {
+      changed.add(event.getUid());
+    }
+    for(final CalendarEvent event : p_diff.getModified()) {
+      changed.add(event.getUid());
+    }
+    final Set<String> removed = new HashSet<String>();
+    for(final CalendarEvent event : p_diff.getRemoved()) {
+      removed.add(event.getUid());
+    }
     try {
-      m_engine.synchronize(p_ical, m_cal.getURL(), m_username, m_password);
-      logger.info("Sync to gmail completed at " + new Date().toString());
+      final Set<String> rejected = m_engine.publishChanges(p_ical, m_cal.getURL(), m_username, m_password, changed,
+          removed);
+      if(rejected.isEmpty()) {
+        logger.info("Sync to gmail (" + p_diff + ") completed at " + new Date().toString());
+      } else {
+        logger.warn("Sync to gmail (" + p_diff + ") completed at " + new Date().toString() + ", " + rejected.size()
+            + " event(s) rejected");
+      }
+      return rejected;
     } catch(final Exception ex) {
       throw new IOException("Error synchronizing calendar", ex);
     }
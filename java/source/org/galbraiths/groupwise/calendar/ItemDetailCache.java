@@ -0,0 +1,149 @@
+package org.galbraiths.groupwise.calendar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.galbraiths.groupwise.util.Closer;
+
+/**
+ * On-disk cache of parsed Item.Read detail pages, keyed by the Groupwise item id from the link
+ * (see {@link CalendarScraperMinimal#getItemId(String)}).
+ * Entries expire after a fixed TTL, and all entries of a month are dropped when that month's listing
+ * shows a different set of links than the previous scan.  Each entry also remembers the listing text (time and
+ * subject) its link was shown with, so an event that was rescheduled or renamed is read again on the next scan.
+ */
+class ItemDetailCache {
+  private static Log logger = LogFactory.getLog(ItemDetailCache.class);
+  private static final String FILE_NAME = "items.cache";
+
+  private final File m_file;
+  private final long m_ttlMillis;
+
+  private final Map<String, CachedItem> m_items = new ConcurrentHashMap<String, CachedItem>();
+  private final Map<String, Set<String>> m_months = new ConcurrentHashMap<String, Set<String>>();
+
+  private static class CachedItem implements Serializable {
+    private static final long serialVersionUID = 2L;
+
+    private final long m_fetched;
+    private final String m_listing;
+    private final CalendarEvent m_event;
+
+    private CachedItem(final long p_fetched, final String p_listing, final CalendarEvent p_event) {
+      m_fetched = p_fetched;
+      m_listing = p_listing;
+      m_event = p_event;
+    }
+  }
+
+  ItemDetailCache(final File p_dir, final int p_ttlMinutes) {
+    m_file = new File(p_dir, FILE_NAME);
+    m_ttlMillis = p_ttlMinutes * 60L * 1000L;
+    load();
+  }
+
+  /**
+   * @param p_listing the text the item's link is listed with this scan.
+   * @return the cached event, or null if it expired or the listing changed since it was read.
+   */
+  CalendarEvent get(final String p_itemId, final String p_listing) {
+    final CachedItem item = m_items.get(p_itemId);
+    if(item == null) {
+      return null;
+    }
+    if(System.currentTimeMillis() - item.m_fetched > m_ttlMillis) {
+      m_items.remove(p_itemId);
+      return null;
+    }
+    if(item.m_listing == null ? p_listing != null : !item.m_listing.equals(p_listing)) {
+      logger.debug("Listing of item " + p_itemId + " changed, reading it again.");
+      m_items.remove(p_itemId);
+      return null;
+    }
+    return item.m_event;
+  }
+
+  void put(final String p_itemId, final String p_listing, final CalendarEvent p_event) {
+    m_items.put(p_itemId, new CachedItem(System.currentTimeMillis(), p_listing, p_event));
+  }
+
+  /**
+   * Records the item ids listed for a month.  If they differ from the last scan, every item that was or is in
+   * the month is evicted so the changed month is read fresh.
+   */
+  void updateMonth(final String p_month, final Set<String> p_itemIds) {
+    final Set<String> previous = m_months.put(p_month, new HashSet<String>(p_itemIds));
+    if(previous != null && !previous.equals(p_itemIds)) {
+      logger.debug("Listing for " + p_month + " changed, dropping its cached items.");
+      for(final String itemId : previous) {
+        m_items.remove(itemId);
+      }
+      for(final String itemId : p_itemIds) {
+        m_items.remove(itemId);
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void load() {
+    if(!m_file.exists()) {
+      return;
+    }
+    ObjectInputStream in = null;
+    try {
+      in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(m_file)));
+      m_items.putAll((Map<String, CachedItem>) in.readObject());
+      m_months.putAll((Map<String, Set<String>>) in.readObject());
+    } catch(final Exception ex) {
+      logger.warn("Couldn't read item cache, starting empty.", ex);
+      m_items.clear();
+      m_months.clear();
+    } finally {
+      Closer.close(in);
+    }
+  }
+
+  /** Drops expired entries and writes the rest to disk. */
+  void save() {
+    final long now = System.currentTimeMillis();
+    final Iterator<CachedItem> it = m_items.values().iterator();
+    while(it.hasNext()) {
+      if(now - it.next().m_fetched > m_ttlMillis) {
+        it.remove();
+      }
+    }
+
+    ObjectOutputStream out = null;
+    try {
+      final File tmp = new File(m_file.getParentFile(), FILE_NAME + ".tmp");
+      out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      out.writeObject(new HashMap<String, CachedItem>(m_items));
+      out.writeObject(new HashMap<String, Set<String>>(m_months));
+      Closer.close(out);
+
+      if(!tmp.renameTo(m_file)) {
+        m_file.delete();
+        tmp.renameTo(m_file);
+      }
+    } catch(final IOException ex) {
+      logger.warn("Couldn't write item cache.", ex);
+    } finally {
+      Closer.close(out);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package org.galbraiths.groupwise.calendar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.galbraiths.groupwise.util.Closer;
+
+/**
+ * Persisted events of each scanned month.  Lets the scraper re-read only the months near today every cycle and
+ * fill in the distant months from the last time they were scanned.
+ */
+class MonthEventStore {
+  private static Log logger = LogFactory.getLog(MonthEventStore.class);
+  private static final String FILE_NAME = "months.cache";
+
+  private final File m_file;
+  private final long m_maxAgeMillis;
+
+  private final Map<String, ScannedMonth> m_months = new ConcurrentHashMap<String, ScannedMonth>();
+
+  private static class ScannedMonth implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long m_scanned;
+    private final List<CalendarEvent> m_events;
+
+    private ScannedMonth(final long p_scanned, final List<CalendarEvent> p_events) {
+      m_scanned = p_scanned;
+      m_events = p_events;
+    }
+  }
+
+  MonthEventStore(final File p_dir, final int p_maxAgeMinutes) {
+    m_file = new File(p_dir, FILE_NAME);
+    m_maxAgeMillis = p_maxAgeMinutes * 60L * 1000L;
+    load();
+  }
+
+  /**
+   * @return the events last scanned for the month, or null if it was never scanned or is due for a rescan.
+   */
+  List<CalendarEvent> get(final String p_month) {
+    final ScannedMonth month = m_months.get(p_month);
+    if(month == null || System.currentTimeMillis() - month.m_scanned > m_maxAgeMillis) {
+      return null;
+    }
+    return month.m_events;
+  }
+
+  void put(final String p_month, final List<CalendarEvent> p_events) {
+    m_months.put(p_month, new ScannedMonth(System.currentTimeMillis(), p_events));
+  }
+
+  /** Forgets months which have rolled out of the scan window. */
+  void retain(final Collection<String> p_months) {
+    m_months.keySet().retainAll(p_months);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void load() {
+    if(!m_file.exists()) {
+      return;
+    }
+    ObjectInputStream in = null;
+    try {
+      in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(m_file)));
+      m_months.putAll((Map<String, ScannedMonth>) in.readObject());
+    } catch(final Exception ex) {
+      logger.warn("Couldn't read month cache, doing a full scan.", ex);
+      m_months.clear();
+    } finally {
+      Closer.close(in);
+    }
+  }
+
+  void save() {
+    ObjectOutputStream out = null;
+    try {
+      final File tmp = new File(m_file.getParentFile(), FILE_NAME + ".tmp");
+      out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+      out.writeObject(new HashMap<String, ScannedMonth>(m_months));
+      Closer.close(out);
+
+      if(!tmp.renameTo(m_file)) {
+        m_file.delete();
+        tmp.renameTo(m_file);
+      }
+    } catch(final IOException ex) {
+      logger.warn("Couldn't write month cache.", ex);
+    } finally {
+      Closer.close(out);
+    }
+  }
+}
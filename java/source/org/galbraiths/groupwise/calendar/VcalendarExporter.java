@@ -85,7 +85,7 @@ class VcalendarExporter {
           .append("\n");
       }
 
-      final String eventUid = String.valueOf(event.hashCode());
+      final String eventUid = event.getUid();
       sb.append("UID:").append(eventUid).append("\n");
 
       sb.append("BEGIN:VALARM\n")
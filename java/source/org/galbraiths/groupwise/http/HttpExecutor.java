@@ -0,0 +1,133 @@
+package org.galbraiths.groupwise.http;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.galbraiths.groupwise.util.DaemonThreadFactory;
+
+/**
+ * Runs the HTTP exchanges of {@link SunHttpServer} on a bounded pool (or one virtual thread per request on JDK 21+).
+ * When all threads are busy and the queue is full the exchange is handed to a single rejection thread with
+ * {@link #isOverloaded()} set, so the handler can answer a cheap 503 instead of the connection being dropped.  The
+ * server's dispatcher thread never reads a request itself.  If the rejection queue is full too the exchange is
+ * dropped, and the server's request timeout closes the connection.
+ */
+class HttpExecutor implements Executor, RejectedExecutionHandler {
+  private static Log logger = LogFactory.getLog(HttpExecutor.class);
+
+  private static final ThreadLocal<Boolean> s_overloaded = new ThreadLocal<Boolean>();
+
+  private static final int REJECTED_QUEUE_SIZE = 256;
+
+  private final ExecutorService m_delegate;
+
+  /** Answers the rejected exchanges, off the dispatcher thread. */
+  private final ThreadPoolExecutor m_rejecter;
+
+  /** Limits the requests running or waiting when the delegate doesn't (virtual threads), otherwise null. */
+  private final Semaphore m_permits;
+
+  HttpExecutor(final int p_threads, final int p_maxThreads, final int p_queueSize, final boolean p_virtualThreads) {
+    final int maxThreads = Math.max(1, Math.max(p_threads, p_maxThreads));
+    final int queueSize = Math.max(1, p_queueSize);
+
+    m_rejecter = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<Runnable>(REJECTED_QUEUE_SIZE),
+        new DaemonThreadFactory("http-rejected"), new RejectedExecutionHandler() {
+          @Override
+          public void rejectedExecution(final Runnable p_task, final ThreadPoolExecutor p_pool) {
+            logger.debug("HTTP rejection queue is full, dropping the request.");
+          }
+        });
+
+    final ExecutorService virtual = p_virtualThreads ? newVirtualThreadExecutor() : null;
+    if(virtual != null) {
+      m_delegate = virtual;
+      m_permits = new Semaphore(maxThreads + queueSize);
+      logger.info("HTTP requests run on virtual threads, at most " + (maxThreads + queueSize) + " at a time.");
+    } else {
+      final ThreadPoolExecutor pool = new ThreadPoolExecutor(Math.max(1, p_threads), maxThreads, 1, TimeUnit.MINUTES,
+          new ArrayBlockingQueue<Runnable>(queueSize), new DaemonThreadFactory("http"), this);
+      m_delegate = pool;
+      m_permits = null;
+    }
+  }
+
+  /**
+   * Looked up by reflection so the code still builds and runs on JDKs before 21.
+   */
+  private static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch(final Exception ex) {
+      logger.warn("Virtual threads aren't available on this JDK, using the thread pool.");
+      return null;
+    }
+  }
+
+  /**
+   * @return true if the current exchange was rejected and should be answered with 503.
+   */
+  static boolean isOverloaded() {
+    return s_overloaded.get() != null;
+  }
+
+  @Override
+  public void execute(final Runnable p_task) {
+    if(m_permits == null) {
+      m_delegate.execute(p_task);
+      return;
+    }
+    if(!m_permits.tryAcquire()) {
+      runOverloaded(p_task);
+      return;
+    }
+    try {
+      m_delegate.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            p_task.run();
+          } finally {
+            m_permits.release();
+          }
+        }
+      });
+    } catch(final RejectedExecutionException ex) {
+      m_permits.release();
+      runOverloaded(p_task);
+    }
+  }
+
+  @Override
+  public void rejectedExecution(final Runnable p_task, final ThreadPoolExecutor p_pool) {
+    runOverloaded(p_task);
+  }
+
+  private void runOverloaded(final Runnable p_task) {
+    m_rejecter.execute(new Runnable() {
+      @Override
+      public void run() {
+        s_overloaded.set(Boolean.TRUE);
+        try {
+          p_task.run();
+        } finally {
+          s_overloaded.remove();
+        }
+      }
+    });
+  }
+
+  void shutdown() {
+    m_delegate.shutdown();
+    m_rejecter.shutdown();
+  }
+}
@@ -2,16 +2,19 @@ package org.galbraiths.groupwise.http;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
+import java.net.URLDecoder;
 import java.text.DateFormat;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
+import org.galbraiths.groupwise.calendar.CalendarSnapshot;
 import org.galbraiths.groupwise.calendar.CalendarUpdateThread;
 import org.galbraiths.groupwise.model.GroupwiseConfig;
 import org.galbraiths.groupwise.util.Closer;
@@ -29,12 +32,20 @@ import com.sun.net.httpserver.HttpServer;
 public class SunHttpServer implements HttpHandler {
 
   private static final String VERSION = "1.0";
+  private static final String NOT_READY = "Waiting for calendar refresh...";
+  private static final String OVERLOADED = "Server busy, try again later.";
+  private static final int RETRY_AFTER_SECONDS = 5;
+
+  /** JDK server setting: seconds a client may take to send its request before the connection is closed. */
+  static final String MAX_REQ_TIME = "sun.net.httpserver.maxReqTime";
+  private static final String REQUEST_TIMEOUT_SECONDS = "30";
 
   private final CalendarUpdateThread m_thread;
   private final GroupwiseConfig m_config;
   private final DateFormat m_dateFormat;
 
   private HttpServer m_server;
+  private HttpExecutor m_executor;
 
   public SunHttpServer(final GroupwiseConfig p_config, final CalendarUpdateThread p_thread) {
     m_thread = p_thread;
@@ -54,9 +65,15 @@ public class SunHttpServer implements HttpHandler {
       addr = new InetSocketAddress(m_config.getListenIp(), m_config.getListenPort());
     }
 
+    // Read once when the first server is created.  Bounds slow clients, also on the rejection thread.
+    if(System.getProperty(MAX_REQ_TIME) == null) {
+      System.setProperty(MAX_REQ_TIME, REQUEST_TIMEOUT_SECONDS);
+    }
     m_server = HttpServer.create(addr, 0);
     m_server.createContext("/", this);
-    m_server.setExecutor(new ThreadPoolExecutor(1, 2, 5, TimeUnit.MINUTES, new SynchronousQueue<Runnable>()));
+    m_executor = new HttpExecutor(m_config.getHttpThreads(), m_config.getHttpMaxThreads(), m_config.getHttpQueueSize(),
+        m_config.isHttpVirtualThreads());
+    m_server.setExecutor(m_executor);
     m_server.start();
 
     System.err.println("Now Accepting Connections");
@@ -67,36 +84,231 @@ public class SunHttpServer implements HttpHandler {
    */
   public void stop() throws IOException { // NO_UCD
     m_server.stop(0);
+    m_executor.shutdown();
   }
 
   @Override
   public void handle(final HttpExchange exchange) throws IOException {
-    String contentType;
-    int resCode;
-    byte[] bytes;
-
-    try {
-      bytes = m_thread.getVCal().toString().getBytes("UTF8");
-      resCode = 200;
-      contentType = "text/calendar;charset=UTF-8";
-    } catch(final TimeoutException ex) {
-      // Thrown if calendar isn't ready yet.
-      resCode = 500;
-      bytes = ex.getMessage().getBytes("UTF8");
-      contentType = "text/plain;charset=UTF-8";
+    if(HttpExecutor.isOverloaded()) {
+      // Running on the rejection thread, answer without touching the calendar.
+      final byte[] bytes = OVERLOADED.getBytes("UTF8");
+      OutputStream out = null;
+      try {
+        final Headers head = exchange.getResponseHeaders();
+        head.add("Server", "GwGcalSync v" + VERSION);
+        head.add("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+        head.add("Content-Type", "text/plain;charset=UTF-8");
+        exchange.sendResponseHeaders(503, bytes.length);
+        out = exchange.getResponseBody();
+        out.write(bytes);
+      } finally {
+        Closer.close(out);
+      }
+      return;
     }
 
+    // Lock-free: the update thread replaces the snapshot, never modifies it.
+    final CalendarSnapshot snapshot = m_thread.getSnapshot();
+    final Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+
     OutputStream out = null;
     try {
       final Headers head = exchange.getResponseHeaders();
       head.add("Server", "GwGcalSync v" + VERSION);
-      head.add("Last-Modified", m_dateFormat.format(m_thread.getLastModified()));
-      head.add("Content-Type", contentType);
-      exchange.sendResponseHeaders(resCode, bytes.length);
+      if(snapshot == null) {
+        // Calendar isn't ready yet.
+        final byte[] bytes = NOT_READY.getBytes("UTF8");
+        head.add("Content-Type", "text/plain;charset=UTF-8");
+        exchange.sendResponseHeaders(500, bytes.length);
+        out = exchange.getResponseBody();
+        out.write(bytes);
+      } else if(params.containsKey("from") || params.containsKey("to")) {
+        sendRange(exchange, snapshot, params);
+      } else {
+        final boolean gzip = acceptsGzip(exchange.getRequestHeaders());
+        // Each encoding is a different representation, so it gets its own strong ETag.
+        final String etag = '"' + snapshot.getDigest() + (gzip ? "-gzip\"" : "\"");
+        head.add("ETag", etag);
+        head.add("Last-Modified", formatDate(snapshot.getLastModified()));
+        head.add("Vary", "Accept-Encoding");
+        if(isNotModified(exchange.getRequestHeaders(), etag, snapshot.getLastModified())) {
+          exchange.sendResponseHeaders(304, -1);
+          exchange.close();
+          return;
+        }
+        head.add("Content-Type", "text/calendar;charset=UTF-8");
+        if(gzip) {
+          head.add("Content-Encoding", "gzip");
+          exchange.sendResponseHeaders(200, snapshot.getGzipLength());
+          out = exchange.getResponseBody();
+          snapshot.writeGzipTo(out);
+        } else {
+          exchange.sendResponseHeaders(200, snapshot.getLength());
+          out = exchange.getResponseBody();
+          snapshot.writeTo(out);
+        }
+      }
+    } finally {
+      Closer.close(out);
+    }
+  }
+
+  /**
+   * Answers GET /calendar.ics?from=...&to=... with only the events overlapping the range, rendered from the snapshot's
+   * interval index.  Both bounds are optional, and are yyyy-MM-dd or yyyy-MM-ddTHH:mm in the server's time zone.
+   */
+  private void sendRange(final HttpExchange exchange, final CalendarSnapshot p_snapshot,
+      final Map<String, String> p_params) throws IOException {
+    final Headers head = exchange.getResponseHeaders();
+    final long from, to;
+    try {
+      from = parseTime(p_params.get("from"), Long.MIN_VALUE);
+      to = parseTime(p_params.get("to"), Long.MAX_VALUE);
+    } catch(final ParseException ex) {
+      sendText(exchange, 400, "Invalid date, use yyyy-MM-dd or yyyy-MM-ddTHH:mm: " + ex.getMessage());
+      return;
+    }
+    if(from >= to) {
+      sendText(exchange, 400, "'from' must be before 'to'.");
+      return;
+    }
+
+    // The result only depends on the calendar version and the range.
+    final String etag = '"' + p_snapshot.getDigest() + '-' + from + '-' + to + '"';
+    head.add("ETag", etag);
+    head.add("Last-Modified", formatDate(p_snapshot.getLastModified()));
+    if(isNotModified(exchange.getRequestHeaders(), etag, p_snapshot.getLastModified())) {
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return;
+    }
+
+    final byte[] bytes = p_snapshot.getVcalendar(from, to).toString().getBytes("UTF8");
+    head.add("Content-Type", "text/calendar;charset=UTF-8");
+    exchange.sendResponseHeaders(200, bytes.length);
+    OutputStream out = null;
+    try {
       out = exchange.getResponseBody();
       out.write(bytes);
     } finally {
       Closer.close(out);
     }
   }
+
+  private static void sendText(final HttpExchange exchange, final int p_resCode, final String p_text) throws IOException {
+    final byte[] bytes = p_text.getBytes("UTF8");
+    exchange.getResponseHeaders().add("Content-Type", "text/plain;charset=UTF-8");
+    exchange.sendResponseHeaders(p_resCode, bytes.length);
+    OutputStream out = null;
+    try {
+      out = exchange.getResponseBody();
+      out.write(bytes);
+    } finally {
+      Closer.close(out);
+    }
+  }
+
+  private static Map<String, String> parseQuery(final String p_query) {
+    final Map<String, String> params = new HashMap<String, String>();
+    if(p_query == null) {
+      return params;
+    }
+    for(final String pair : p_query.split("&")) {
+      final int eq = pair.indexOf('=');
+      final String name = eq < 0 ? pair : pair.substring(0, eq);
+      final String value = eq < 0 ? "" : pair.substring(eq + 1);
+      try {
+        params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+      } catch(final IllegalArgumentException ex) {
+        // Malformed escape, ignore the parameter.
+      } catch(final UnsupportedEncodingException ex) {
+        throw new IllegalStateException(ex);
+      }
+    }
+    return params;
+  }
+
+  private static long parseTime(final String p_value, final long p_default) throws ParseException {
+    if(p_value == null || p_value.trim().length() == 0) {
+      return p_default;
+    }
+    final String value = p_value.trim();
+    final DateFormat format = new SimpleDateFormat(value.indexOf('T') < 0 ? "yyyy-MM-dd" : "yyyy-MM-dd'T'HH:mm");
+    format.setLenient(false);
+    return format.parse(value).getTime();
+  }
+
+  /**
+   * @return true if the client accepts gzip (or x-gzip) with a non-zero quality.
+   */
+  private static boolean acceptsGzip(final Headers p_request) {
+    final String acceptEncoding = p_request.getFirst("Accept-Encoding");
+    if(acceptEncoding == null) {
+      return false;
+    }
+    for(final String coding : acceptEncoding.split(",")) {
+      final String[] params = coding.split(";");
+      final String name = params[0].trim().toLowerCase(Locale.US);
+      if(!name.equals("gzip") && !name.equals("x-gzip")) {
+        continue;
+      }
+      for(int i = 1; i < params.length; i++) {
+        final String param = params[i].trim();
+        if(param.startsWith("q=")) {
+          try {
+            return Float.parseFloat(param.substring(2)) > 0;
+          } catch(final NumberFormatException ex) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * If-None-Match takes precedence over If-Modified-Since (RFC 7232, section 6).
+   */
+  private boolean isNotModified(final Headers p_request, final String p_etag, final long p_lastModified) {
+    final String ifNoneMatch = p_request.getFirst("If-None-Match");
+    if(ifNoneMatch != null) {
+      for(String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        if(tag.startsWith("W/")) {
+          // Weak comparison is allowed for GET.
+          tag = tag.substring(2);
+        }
+        if(tag.equals("*") || tag.equals(p_etag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    final String ifModifiedSince = p_request.getFirst("If-Modified-Since");
+    if(ifModifiedSince != null) {
+      final Date since = parseDate(ifModifiedSince);
+      // HTTP dates have one second resolution.
+      return since != null && p_lastModified / 1000 <= since.getTime() / 1000;
+    }
+    return false;
+  }
+
+  private Date parseDate(final String p_date) {
+    synchronized(m_dateFormat) {
+      try {
+        return m_dateFormat.parse(p_date.trim());
+      } catch(final ParseException ex) {
+        return null;
+      }
+    }
+  }
+
+  private String formatDate(final long p_time) {
+    // SimpleDateFormat isn't thread-safe.
+    synchronized(m_dateFormat) {
+      return m_dateFormat.format(new Date(p_time));
+    }
+  }
 }
@@ -29,9 +29,18 @@ public class GroupwiseConfig {
   private int m_retrieveMonths;
   private String m_proxyHost;
   private int m_proxyPort;
+  private int m_scrapeParallelism;
+  private int m_maxConnectionsPerHost;
+  private int m_itemCacheMinutes;
+  private int m_nearMonths;
+  private int m_fullScanMinutes;
 
   private String m_listenIp;
   private int m_listenPort;
+  private int m_httpThreads;
+  private int m_httpMaxThreads;
+  private int m_httpQueueSize;
+  private boolean m_httpVirtualThreads;
 
   private String m_gmailUsername;
   private String m_gmailPassword;
@@ -39,6 +48,7 @@ public class GroupwiseConfig {
 
   private String m_gmailProxyHost;
   private int m_gmailProxyPort;
+  private int m_gmailBatchSize;
 
   private boolean m_oneShot;
 
@@ -79,14 +89,24 @@ public class GroupwiseConfig {
         m_retrieveMonths = Integer.valueOf(properties.getProperty("months", "24"));
         m_proxyHost = properties.getProperty("groupwise.proxy");
         m_proxyPort = Integer.valueOf(properties.getProperty("groupwise.proxyPort", "0"));
+        m_scrapeParallelism = Integer.valueOf(properties.getProperty("scrape.parallelism", "4"));
+        m_maxConnectionsPerHost = Integer.valueOf(properties.getProperty("groupwise.maxConnections", "8"));
+        m_itemCacheMinutes = Integer.valueOf(properties.getProperty("groupwise.itemCacheMinutes", "60"));
+        m_nearMonths = Integer.valueOf(properties.getProperty("scan.nearMonths", "1"));
+        m_fullScanMinutes = Integer.valueOf(properties.getProperty("scan.fullMinutes", "360"));
         m_listenIp = properties.getProperty("bind", "127.0.0.1");
         m_listenPort = Integer.valueOf(properties.getProperty("port", "8123"));
+        m_httpThreads = Integer.valueOf(properties.getProperty("http.threads", "2"));
+        m_httpMaxThreads = Integer.valueOf(properties.getProperty("http.maxThreads", "16"));
+        m_httpQueueSize = Integer.valueOf(properties.getProperty("http.queue", "64"));
+        m_httpVirtualThreads = Boolean.valueOf(properties.getProperty("http.virtualThreads", "false"));
 
         m_gmailUsername = properties.getProperty("gmail.username");
         m_gmailPassword = properties.getProperty("gmail.password");
         m_gmailCalendarName = properties.getProperty("gmail.calendar");
         m_gmailProxyHost = properties.getProperty("gmail.proxy");
         m_gmailProxyPort = Integer.valueOf(properties.getProperty("gmail.proxyPort", "0"));
+        m_gmailBatchSize = Integer.valueOf(properties.getProperty("gmail.batchSize", "100"));
 
         m_oneShot = Boolean.getBoolean(properties.getProperty("oneshot", "false"));
 
@@ -188,6 +208,36 @@ public class GroupwiseConfig {
   public void setProxyPort(final int p_proxyPort) {
     this.m_proxyPort = p_proxyPort;
   }
+  public int getScrapeParallelism() {
+    return this.m_scrapeParallelism;
+  }
+  public void setScrapeParallelism(final int p_scrapeParallelism) {
+    this.m_scrapeParallelism = p_scrapeParallelism;
+  }
+  public int getMaxConnectionsPerHost() {
+    return this.m_maxConnectionsPerHost;
+  }
+  public void setMaxConnectionsPerHost(final int p_maxConnectionsPerHost) {
+    this.m_maxConnectionsPerHost = p_maxConnectionsPerHost;
+  }
+  public int getItemCacheMinutes() {
+    return this.m_itemCacheMinutes;
+  }
+  public void setItemCacheMinutes(final int p_itemCacheMinutes) {
+    this.m_itemCacheMinutes = p_itemCacheMinutes;
+  }
+  public int getNearMonths() {
+    return this.m_nearMonths;
+  }
+  public void setNearMonths(final int p_nearMonths) {
+    this.m_nearMonths = p_nearMonths;
+  }
+  public int getFullScanMinutes() {
+    return this.m_fullScanMinutes;
+  }
+  public void setFullScanMinutes(final int p_fullScanMinutes) {
+    this.m_fullScanMinutes = p_fullScanMinutes;
+  }
   public String getListenIp() {
     return this.m_listenIp;
   }
@@ -200,6 +250,30 @@ public class GroupwiseConfig {
   public void setListenPort(final int p_listenPort) {
     this.m_listenPort = p_listenPort;
   }
+  public int getHttpThreads() {
+    return this.m_httpThreads;
+  }
+  public void setHttpThreads(final int p_httpThreads) {
+    this.m_httpThreads = p_httpThreads;
+  }
+  public int getHttpMaxThreads() {
+    return this.m_httpMaxThreads;
+  }
+  public void setHttpMaxThreads(final int p_httpMaxThreads) {
+    this.m_httpMaxThreads = p_httpMaxThreads;
+  }
+  public int getHttpQueueSize() {
+    return this.m_httpQueueSize;
+  }
+  public void setHttpQueueSize(final int p_httpQueueSize) {
+    this.m_httpQueueSize = p_httpQueueSize;
+  }
+  public boolean isHttpVirtualThreads() {
+    return this.m_httpVirtualThreads;
+  }
+  public void setHttpVirtualThreads(final boolean p_httpVirtualThreads) {
+    this.m_httpVirtualThreads = p_httpVirtualThreads;
+  }
 
   public String getGmailUsername() {
     return this.m_gmailUsername;
@@ -241,6 +315,14 @@ public class GroupwiseConfig {
     this.m_gmailProxyPort = p_gmailProxyPort;
   }
 
+  public int getGmailBatchSize() {
+    return this.m_gmailBatchSize;
+  }
+
+  public void setGmailBatchSize(final int p_gmailBatchSize) {
+    this.m_gmailBatchSize = p_gmailBatchSize;
+  }
+
   public boolean isOneShot() {
     return m_oneShot;
   }
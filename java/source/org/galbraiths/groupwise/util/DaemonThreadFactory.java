@@ -0,0 +1,23 @@
+package org.galbraiths.groupwise.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads so worker pools never keep the JVM alive (IE in one-shot mode).
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+  private final String m_prefix;
+  private final AtomicInteger m_count = new AtomicInteger();
+
+  public DaemonThreadFactory(final String p_prefix) {
+    m_prefix = p_prefix;
+  }
+
+  @Override
+  public Thread newThread(final Runnable p_runnable) {
+    final Thread thread = new Thread(p_runnable, m_prefix + "-" + m_count.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  }
+}
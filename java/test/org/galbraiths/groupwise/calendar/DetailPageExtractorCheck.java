@@ -0,0 +1,123 @@
+package org.galbraiths.groupwise.calendar;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.galbraiths.groupwise.util.Closer;
+import org.htmlparser.Node;
+import org.htmlparser.Parser;
+import org.htmlparser.Text;
+import org.htmlparser.filters.TagNameFilter;
+import org.htmlparser.util.NodeIterator;
+import org.htmlparser.util.NodeList;
+
+/**
+ * Regression check for {@link DetailPageExtractor}.  Every page.html in the corpus directory is run through the
+ * extractor and through the node tree walk it replaced, and both must give the fields listed in page.txt
+ * (one "Label:&lt;tab&gt;value" per line).  Run with "ant test".
+ */
+public class DetailPageExtractorCheck {
+
+  public static void main(final String[] args) throws Exception {
+    final File dir = new File(args[0]);
+    final File[] pages = dir.listFiles();
+    Arrays.sort(pages);
+
+    int failures = 0;
+    int checked = 0;
+    for(final File page : pages) {
+      if(!page.getName().endsWith(".html")) {
+        continue;
+      }
+      final String html = read(page);
+      final Map<String, String> expected = readExpected(new File(dir, page.getName().replace(".html", ".txt")));
+      final Map<String, String> extracted = new TreeMap<String, String>(DetailPageExtractor.extract(html));
+      final Map<String, String> treeWalk = new TreeMap<String, String>(treeWalk(html));
+
+      checked++;
+      if(!expected.equals(extracted) || !expected.equals(treeWalk)) {
+        failures++;
+        System.out.println("FAIL " + page.getName() + "\n  expected:  " + expected + "\n  extractor: " + extracted
+            + "\n  tree walk: " + treeWalk);
+      } else {
+        System.out.println("ok   " + page.getName() + " " + extracted);
+      }
+    }
+
+    System.out.println(checked + " pages, " + failures + " failures");
+    if(failures != 0 || checked == 0) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * The td walk CalendarScraperMinimal used before the streaming extractor.
+   */
+  private static Map<String, String> treeWalk(final String p_html) throws Exception {
+    String mode = null;
+    final Map<String, String> values = new HashMap<String, String>();
+
+    final NodeIterator cells = Parser.createParser(p_html, null).extractAllNodesThatMatch(new TagNameFilter("td"))
+        .elements();
+    while(cells.hasMoreNodes()) {
+      final NodeList list = cells.nextNode().getChildren();
+      if(list == null) {
+        continue;
+      }
+
+      final NodeIterator it = list.elements();
+      while(it.hasMoreNodes()) {
+        final Node child = it.nextNode();
+        if(child instanceof Text) {
+          final String text = ((Text) child).getText().replaceAll("\\&nbsp\\;", " ").trim();
+          if(text.equals("Subject:") || text.equals("Date:") || text.equals("Time:") || text.equals("To:")
+              || text.equals("Location:")) {
+            mode = text;
+            continue;
+          }
+          if(text.equals("")) {
+            continue;
+          }
+          if(mode != null) {
+            values.put(mode, text);
+            mode = null;
+          }
+        }
+      }
+    }
+    return values;
+  }
+
+  private static Map<String, String> readExpected(final File p_file) throws IOException {
+    final Map<String, String> expected = new TreeMap<String, String>();
+    for(final String line : read(p_file).split("\n")) {
+      final int tab = line.indexOf('\t');
+      if(tab != -1) {
+        expected.put(line.substring(0, tab), line.substring(tab + 1));
+      }
+    }
+    return expected;
+  }
+
+  private static String read(final File p_file) throws IOException {
+    BufferedReader rdr = null;
+    try {
+      rdr = new BufferedReader(new InputStreamReader(new FileInputStream(p_file), "UTF-8"));
+      final StringBuilder sb = new StringBuilder();
+      String line;
+      while((line = rdr.readLine()) != null) {
+        sb.append(line).append('\n');
+      }
+      return sb.toString();
+    } finally {
+      Closer.close(rdr);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package org.galbraiths.groupwise.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.galbraiths.groupwise.util.Closer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Load check for {@link HttpExecutor}.  150 clients send 40 requests each to a server with the default pool size
+ * (2-16 threads, 64 queued), while a few slow clients hold connections with half sent requests.  Every request must
+ * get a 200 or a 503, none may fail.  Run with "ant loadtest" (add "virtual" as argument for virtual threads).
+ */
+public class HttpLoadCheck {
+  private static final int CLIENTS = 150;
+  private static final int REQUESTS_PER_CLIENT = 40;
+  private static final int SLOW_CLIENTS = 8;
+  private static final int BODY_SIZE = 20000;
+  private static final long WORK_MILLIS = 5;
+
+  public static void main(final String[] args) throws Exception {
+    final boolean virtual = args.length > 0 && args[0].equals("virtual");
+
+    // Short, so the slow clients are cut off during the run.
+    System.setProperty(SunHttpServer.MAX_REQ_TIME, "5");
+
+    final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(final HttpExchange p_exchange) throws IOException {
+        // Same shape as SunHttpServer: a cheap 503 when overloaded, otherwise some work and a calendar sized body.
+        try {
+          if(HttpExecutor.isOverloaded()) {
+            p_exchange.getResponseHeaders().add("Retry-After", "5");
+            p_exchange.sendResponseHeaders(503, -1);
+            return;
+          }
+          Thread.sleep(WORK_MILLIS);
+          p_exchange.sendResponseHeaders(200, BODY_SIZE);
+          p_exchange.getResponseBody().write(new byte[BODY_SIZE]);
+        } catch(final InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        } finally {
+          p_exchange.close();
+        }
+      }
+    });
+    final HttpExecutor executor = new HttpExecutor(2, 16, 64, virtual);
+    server.setExecutor(executor);
+    server.start();
+    final int port = server.getAddress().getPort();
+
+    final List<Socket> slow = new ArrayList<Socket>();
+    for(int i = 0; i < SLOW_CLIENTS; i++) {
+      final Socket socket = new Socket("127.0.0.1", port);
+      final OutputStream out = socket.getOutputStream();
+      out.write("GET / HTTP/1.1\r\nHost: 127.0.0.1\r\n".getBytes("US-ASCII"));
+      out.flush();
+      slow.add(socket);
+    }
+
+    final AtomicInteger ok = new AtomicInteger();
+    final AtomicInteger busy = new AtomicInteger();
+    final AtomicInteger errors = new AtomicInteger();
+    final URL url = new URL("http://127.0.0.1:" + port + "/");
+    final ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+    final long started = System.currentTimeMillis();
+    for(int c = 0; c < CLIENTS; c++) {
+      clients.execute(new Runnable() {
+        @Override
+        public void run() {
+          for(int i = 0; i < REQUESTS_PER_CLIENT; i++) {
+            try {
+              final int status = get(url);
+              if(status == 200) {
+                ok.incrementAndGet();
+              } else if(status == 503) {
+                busy.incrementAndGet();
+              } else {
+                errors.incrementAndGet();
+              }
+            } catch(final IOException ex) {
+              errors.incrementAndGet();
+            }
+          }
+        }
+      });
+    }
+    clients.shutdown();
+    clients.awaitTermination(5, TimeUnit.MINUTES);
+    final long elapsed = System.currentTimeMillis() - started;
+
+    for(final Socket socket : slow) {
+      Closer.close(socket);
+    }
+    server.stop(0);
+    executor.shutdown();
+
+    System.out.println("virtual threads: " + virtual + ", clients: " + CLIENTS + ", ok: " + ok + ", 503: " + busy
+        + ", errors: " + errors + ", " + elapsed + " msec, " + ((ok.get() + busy.get()) * 1000L / Math.max(1, elapsed))
+        + " requests/sec");
+    if(errors.get() != 0 || ok.get() == 0) {
+      System.exit(1);
+    }
+  }
+
+  private static int get(final URL p_url) throws IOException {
+    final HttpURLConnection con = (HttpURLConnection)p_url.openConnection();
+    final int status = con.getResponseCode();
+    final InputStream in = status < 400 ? con.getInputStream() : con.getErrorStream();
+    if(in != null) {
+      try {
+        final byte[] buffer = new byte[8192];
+        while(in.read(buffer) > 0) {
+          // Drain, so the connection is reused.
+        }
+      } finally {
+        Closer.close(in);
+      }
+    }
+    return status;
+  }
+}
@@ -0,0 +1,267 @@
+//
+// GCALDaemon is an OS-independent Java program that offers two-way
+// synchronization between Google Calendar and various iCalalendar (RFC 2445)
+// compatible calendar applications (Sunbird, Rainlendar, iCal, Lightning, etc).
+//
+// Apache License
+// Version 2.0, January 2004
+// http://www.apache.org/licenses/
+//
+// Project home:
+// http://gcaldaemon.sourceforge.net
+//
+package org.gcaldaemon.core;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.google.gdata.client.calendar.CalendarService;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Loads a paged Atom event feed from a local fake Google Calendar server with
+ * GCalUtilities.indexGoogleEntries: a full load of 250 entries (100 per
+ * page), an incremental load (updated-min and showdeleted) with one changed
+ * and one canceled entry, and the full reload when the snapshot is stale or
+ * the incremental request fails. Run with "ant test".
+ */
+public class EventFeedCheck {
+
+	// --- CONSTANTS ---
+
+	private static final int EVENTS = 250;
+	private static final int SERVER_PAGE_SIZE = 100;
+
+	private static final String CALENDAR_URL = "/calendar/ical/check%40example.com/private-check/basic.ics";
+
+	// --- FAKE SERVER STATE ---
+
+	private static final List<HashMap<String, String>> requests = new ArrayList<HashMap<String, String>>();
+	private static volatile boolean rejectIncremental;
+
+	private static int failures;
+
+	// --- MAIN ---
+
+	public static void main(final String[] args) throws Exception {
+		final File workDirectory = File.createTempFile("gcal-feed", "");
+		workDirectory.delete();
+		workDirectory.mkdirs();
+		EventFeedStore.setWorkDirectory(workDirectory);
+
+		final HttpServer server = HttpServer.create(new InetSocketAddress(
+				"127.0.0.1", 0), 0);
+		server.createContext("/feed", new HttpHandler() {
+
+			public final void handle(final HttpExchange exchange) {
+				try {
+					serve(exchange);
+				} catch (final Exception ioException) {
+					ioException.printStackTrace();
+				} finally {
+					exchange.close();
+				}
+			}
+
+		});
+		server.start();
+		try {
+			final URL feedURL = new URL("http://127.0.0.1:"
+					+ server.getAddress().getPort() + "/feed");
+			final CalendarService service = new CalendarService("check");
+			final CachedCalendar calendar = new CachedCalendar();
+			calendar.url = CALENDAR_URL;
+
+			// Full load (no snapshot)
+			RemoteEntryIndex index = load(service, calendar, feedURL);
+			check("full load uses 3 pages", requests.size() == 3);
+			check("full load isn't incremental", !isIncremental(0));
+			checkEntries("full load", index, -1, null);
+
+			// Incremental load (one changed, one canceled entry)
+			index = load(service, calendar, feedURL);
+			check("incremental load uses 1 page", requests.size() == 1);
+			check("incremental load sends updated-min and showdeleted",
+					isIncremental(0));
+			checkEntries("incremental load", index, 7, "Changed 3");
+
+			// Stale snapshot
+			final File[] snapshots = workDirectory.listFiles();
+			check("one snapshot saved", snapshots.length == 1);
+			snapshots[0].setLastModified(System.currentTimeMillis() - 1000L
+					* 60 * 60 * 24 * 8);
+			index = load(service, calendar, feedURL);
+			check("stale snapshot is reloaded", requests.size() == 3
+					&& !isIncremental(0));
+			checkEntries("stale snapshot", index, -1, null);
+
+			// Failed incremental load (eg. updated-min is too old)
+			rejectIncremental = true;
+			index = load(service, calendar, feedURL);
+			check("failed incremental load is reloaded", requests.size() == 4
+					&& isIncremental(0) && !isIncremental(1));
+			checkEntries("failed incremental load", index, -1, null);
+		} finally {
+			server.stop(0);
+			final File[] files = workDirectory.listFiles();
+			for (int i = 0; i < files.length; i++) {
+				files[i].delete();
+			}
+			workDirectory.delete();
+		}
+
+		System.out.println(failures + " failures");
+		if (failures != 0) {
+			System.exit(1);
+		}
+	}
+
+	private static final RemoteEntryIndex load(final CalendarService service,
+			final CachedCalendar calendar, final URL feedURL) throws Exception {
+		synchronized (requests) {
+			requests.clear();
+		}
+		return GCalUtilities.indexGoogleEntries(service, calendar, feedURL);
+	}
+
+	private static final boolean isIncremental(final int request) {
+		synchronized (requests) {
+			final HashMap<String, String> params = requests.get(request);
+			return params.containsKey("updated-min")
+					&& "true".equals(params.get("showdeleted"));
+		}
+	}
+
+	// --- CHECKS ---
+
+	private static final void checkEntries(final String name,
+			final RemoteEntryIndex index, final int canceled,
+			final String changedTitle) {
+		int found = 0;
+		RemoteEntry entry;
+		for (int i = 0; i < EVENTS; i++) {
+			entry = index.findByUID("event-" + i, null);
+			if (entry != null) {
+				found++;
+				if (i == 3) {
+					check(name + " has the current title",
+							(changedTitle == null ? "Event 3" : changedTitle)
+									.equals(entry.title));
+				}
+			} else if (i != canceled) {
+				check(name + " has event-" + i, false);
+			}
+		}
+		check(name + " has " + (canceled == -1 ? EVENTS : EVENTS - 1)
+				+ " entries", found == (canceled == -1 ? EVENTS : EVENTS - 1));
+	}
+
+	private static final void check(final String name, final boolean ok) {
+		System.out.println((ok ? "ok   " : "FAIL ") + name);
+		if (!ok) {
+			failures++;
+		}
+	}
+
+	// --- FAKE GOOGLE CALENDAR ---
+
+	private static final void serve(final HttpExchange exchange)
+			throws Exception {
+		final HashMap<String, String> params = new HashMap<String, String>();
+		final String query = exchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			final String[] pairs = query.split("&");
+			for (int i = 0; i < pairs.length; i++) {
+				final int eq = pairs[i].indexOf('=');
+				if (eq != -1) {
+					params.put(pairs[i].substring(0, eq), pairs[i]
+							.substring(eq + 1));
+				}
+			}
+		}
+		synchronized (requests) {
+			requests.add(params);
+		}
+		final boolean incremental = params.containsKey("updated-min");
+		if (incremental && rejectIncremental) {
+			exchange.sendResponseHeaders(410, -1);
+			return;
+		}
+
+		// Feed page (changed entries only after the updated-min)
+		final StringBuffer feed = new StringBuffer(100000);
+		feed.append("<?xml version='1.0' encoding='UTF-8'?>");
+		feed.append("<feed xmlns='http://www.w3.org/2005/Atom'");
+		feed.append(" xmlns:openSearch='http://a9.com/-/spec/opensearchrss/1.0/'");
+		feed.append(" xmlns:gd='http://schemas.google.com/g/2005'>");
+		feed.append("<id>http://127.0.0.1/feed</id>");
+		feed.append("<updated>2008-03-0");
+		feed.append(incremental ? '2' : '1');
+		feed.append("T12:00:00.000Z</updated>");
+		feed.append("<title type='text'>Check</title>");
+		if (incremental) {
+			feed.append("<openSearch:totalResults>2</openSearch:totalResults>");
+			appendEntry(feed, 3, "Changed 3", false);
+			appendEntry(feed, 7, "Event 7", true);
+		} else {
+			final String startParam = params.get("start-index");
+			final int start = startParam == null ? 1 : Integer
+					.parseInt(startParam);
+			final int end = Math.min(start + SERVER_PAGE_SIZE, EVENTS + 1);
+			feed.append("<openSearch:totalResults>" + EVENTS
+					+ "</openSearch:totalResults>");
+			feed.append("<openSearch:startIndex>" + start
+					+ "</openSearch:startIndex>");
+			if (end <= EVENTS) {
+				feed.append("<link rel='next' type='application/atom+xml'");
+				feed.append(" href='http://127.0.0.1/feed?start-index=" + end
+						+ "'/>");
+			}
+			for (int i = start; i < end; i++) {
+				appendEntry(feed, i - 1, "Event " + (i - 1), false);
+			}
+		}
+		feed.append("</feed>");
+
+		final byte[] bytes = feed.toString().getBytes("UTF-8");
+		exchange.getResponseHeaders().add("Content-Type",
+				"application/atom+xml; charset=UTF-8");
+		exchange.sendResponseHeaders(200, bytes.length);
+		final OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private static final void appendEntry(final StringBuffer feed,
+			final int i, final String title, final boolean canceled) {
+		final String day = i % 28 < 9 ? "0" + (i % 28 + 1) : "" + (i % 28 + 1);
+		feed.append("<entry>");
+		feed.append("<id>http://127.0.0.1/feed/entry-" + i + "</id>");
+		feed.append("<published>2008-02-01T12:00:00.000Z</published>");
+		feed.append("<updated>2008-02-01T12:00:00.000Z</updated>");
+		feed.append("<category scheme='http://schemas.google.com/g/2005#kind'");
+		feed.append(" term='http://schemas.google.com/g/2005#event'/>");
+		feed.append("<title type='text'>" + title + "</title>");
+		feed.append("<content type='text'>Description " + i + "</content>");
+		feed.append("<link rel='edit' type='application/atom+xml'");
+		feed.append(" href='http://127.0.0.1/feed/entry-" + i + "/1'/>");
+		feed.append("<gd:eventStatus value='http://schemas.google.com/g/2005#event.");
+		feed.append(canceled ? "canceled" : "confirmed");
+		feed.append("'/>");
+		feed.append("<gd:when startTime='2008-04-" + day + "T" + (i % 10 + 10)
+				+ ":00:00.000Z' endTime='2008-04-" + day + "T" + (i % 10 + 10)
+				+ ":30:00.000Z'/>");
+		feed.append("<gd:extendedProperty name='"
+				+ GCalUtilities.UID_EXTENSION_NAME + "' value='event-" + i
+				+ "'/>");
+		feed.append("</entry>");
+	}
+
+}
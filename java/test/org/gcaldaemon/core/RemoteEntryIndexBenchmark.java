@@ -0,0 +1,128 @@
+//
+// GCALDaemon is an OS-independent Java program that offers two-way
+// synchronization between Google Calendar and various iCalalendar (RFC 2445)
+// compatible calendar applications (Sunbird, Rainlendar, iCal, Lightning, etc).
+//
+// Apache License
+// Version 2.0, January 2004
+// http://www.apache.org/licenses/
+//
+// Project home:
+// http://gcaldaemon.sourceforge.net
+//
+package org.gcaldaemon.core;
+
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.property.Description;
+import net.fortuna.ical4j.model.property.Uid;
+
+import com.google.gdata.data.PlainTextConstruct;
+import com.google.gdata.data.calendar.CalendarEventEntry;
+import com.google.gdata.data.extensions.ExtendedProperty;
+import com.google.gdata.data.extensions.When;
+
+/**
+ * Matches local events to a feed of remote entries with
+ * {@link RemoteEntryIndex}, as createEditURLMap does, and prints the time
+ * per scenario. Every event must find its own entry. Run with
+ * "ant benchmark" (the number of events is the optional argument, 10000 by
+ * default).
+ */
+public class RemoteEntryIndexBenchmark {
+
+	// --- CONSTANTS ---
+
+	private static final long HOUR = 1000L * 60 * 60;
+	private static final long START = 1199145600000L;
+
+	// --- MAIN ---
+
+	public static void main(final String[] args) throws Exception {
+		final int count = args.length == 0 ? 10000 : Integer.parseInt(args[0]);
+		int failures = 0;
+
+		// Every remote entry has the UID extension
+		failures += run("unique ID", count, true, false, false);
+
+		// No UIDs, every event has its own title and time
+		failures += run("properties", count, false, false, false);
+
+		// No UIDs, every event has the same title
+		failures += run("common title", count, false, true, false);
+
+		// No UIDs, every event has the same title and description
+		failures += run("common title and description", count, false, true,
+				true);
+
+		if (failures != 0) {
+			System.out.println(failures + " events matched the wrong entry");
+			System.exit(1);
+		}
+	}
+
+	private static final int run(final String name, final int count,
+			final boolean withUID, final boolean commonTitle,
+			final boolean commonDescription) throws Exception {
+		final VEvent[] events = new VEvent[count];
+		final CalendarEventEntry[] entries = new CalendarEventEntry[count];
+		for (int i = 0; i < count; i++) {
+			final String title = commonTitle ? "Meeting" : "Meeting " + i;
+			final String description = commonDescription ? "Weekly status"
+					: null;
+			final DateTime start = new DateTime(START + i * HOUR);
+			final DateTime end = new DateTime(START + i * HOUR + HOUR / 2);
+			start.setUtc(true);
+			end.setUtc(true);
+			events[i] = new VEvent(start, end, title);
+			events[i].getProperties().add(new Uid("event-" + i));
+			if (description != null) {
+				events[i].getProperties().add(new Description(description));
+			}
+			entries[i] = createEntry(i, withUID ? "event-" + i : null, title,
+					description, start, end);
+		}
+
+		// Index the feed and match the events in reverse order
+		final long started = System.currentTimeMillis();
+		final RemoteEntryIndex index = new RemoteEntryIndex();
+		for (int i = 0; i < count; i++) {
+			index.add(new RemoteEntry(entries[i]));
+		}
+		int failures = 0;
+		RemoteEntry found;
+		for (int i = count - 1; i >= 0; i--) {
+			found = index.find(events[i]);
+			if (found == null || !entries[i].getId().equals(found.id)) {
+				failures++;
+			}
+		}
+		final long elapsed = System.currentTimeMillis() - started;
+		System.out.println(name + ": " + count + " events matched in "
+				+ elapsed + " msec, " + failures + " failures");
+		return failures;
+	}
+
+	private static final CalendarEventEntry createEntry(final int i,
+			final String uid, final String title, final String description,
+			final DateTime start, final DateTime end) throws Exception {
+		final CalendarEventEntry entry = new CalendarEventEntry();
+		entry.setId("entry-" + i);
+		entry.setTitle(new PlainTextConstruct(title));
+		if (description != null) {
+			entry.setContent(new PlainTextConstruct(description));
+		}
+		final When when = new When();
+		when.setStartTime(GCalUtilities.toDateTime(start));
+		when.setEndTime(GCalUtilities.toDateTime(end));
+		entry.addTime(when);
+		if (uid != null) {
+			final ExtendedProperty extension = new ExtendedProperty();
+			extension.setName(GCalUtilities.UID_EXTENSION_NAME);
+			extension.setValue(uid);
+			entry.addExtendedProperty(extension);
+		}
+		return entry;
+	}
+
+}